@@ -0,0 +1,103 @@
+/*
+ * Copyright 2019 John McDonnell.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.johnmcdonnell.netbeans.plugin.google.java.codeformatter.format;
+
+import com.github.difflib.algorithm.DiffException;
+import com.github.difflib.patch.AbstractDelta;
+import com.google.googlejavaformat.java.FormatterException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.DefaultStyledDocument;
+import javax.swing.text.StyledDocument;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures each stage of formatting a document on save: formatting the text, diffing it against the
+ * original and applying the deltas to a document. Run with {@code mvn -Pbenchmark test}; the sample
+ * time mode reports percentiles and the gc profiler the allocation rate.
+ *
+ * @author John McDonnell
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FormatPipelineBenchmark {
+
+  @Param({"SMALL", "MEDIUM", "HUGE"})
+  private JavaSourceCorpus corpus;
+
+  private String unformatted;
+  private String formatted;
+  private List<AbstractDelta<String>> deltas;
+  private GoogleCodeFormatter formatter;
+
+  @Setup(Level.Trial)
+  public void setUpTrial() throws FormatterException, DiffException {
+    // A cache that never keeps anything, so every iteration runs the formatter
+    formatter = new GoogleCodeFormatter(new FormattedContentCache(0));
+    unformatted = corpus.generate();
+    formatted = formatter.formatText(unformatted);
+    deltas = diff();
+  }
+
+  @Benchmark
+  public String format() throws FormatterException {
+    return formatter.formatText(unformatted);
+  }
+
+  @Benchmark
+  public List<AbstractDelta<String>> diff() throws DiffException {
+    return LineDiff.diff(unformatted, formatted);
+  }
+
+  @Benchmark
+  public StyledDocument apply(UnformattedDocument unformattedDocument) {
+    StyledDocument document = unformattedDocument.document;
+    new DocumentDeltaUpdater(deltas, document).run();
+    return document;
+  }
+
+  /**
+   * A fresh copy of the unformatted document for each invocation of {@link #apply}, kept apart so
+   * that the other benchmarks do not pay for building it.
+   */
+  @State(Scope.Thread)
+  public static class UnformattedDocument {
+
+    private StyledDocument document;
+
+    @Setup(Level.Invocation)
+    public void setUp(FormatPipelineBenchmark benchmark) throws BadLocationException {
+      document = new DefaultStyledDocument();
+      document.insertString(0, benchmark.unformatted, null);
+    }
+  }
+}
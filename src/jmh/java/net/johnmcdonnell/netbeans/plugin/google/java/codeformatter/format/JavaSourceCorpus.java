@@ -0,0 +1,79 @@
+/*
+ * Copyright 2019 John McDonnell.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.johnmcdonnell.netbeans.plugin.google.java.codeformatter.format;
+
+import java.util.Random;
+
+/**
+ * Generates unformatted Java sources of a given size for the benchmarks. The same size always
+ * produces the same source.
+ *
+ * @author John McDonnell
+ */
+public enum JavaSourceCorpus {
+  SMALL(8),
+  MEDIUM(100),
+  HUGE(1200);
+
+  private final int methodCount;
+
+  JavaSourceCorpus(int methodCount) {
+    this.methodCount = methodCount;
+  }
+
+  public String generate() {
+    Random random = new Random(methodCount);
+    StringBuilder source = new StringBuilder();
+    source.append("package benchmark;\n");
+    source.append("import java.util.Map;\n");
+    source.append("import java.util.List;\n");
+    source.append("import java.util.ArrayList;\n");
+    source.append("import java.util.HashMap;\n");
+    source.append("import java.util.Set;\n\n");
+    source.append("/** Generated class\n\n*/\n");
+    source.append("public class Generated{\n");
+    source.append("    private final Map<String,List<Integer>> values=new HashMap<>();\n\n");
+    for (int i = 0; i < methodCount; i++) {
+      appendMethod(source, random, i);
+    }
+    source.append("}\n");
+    return source.toString();
+  }
+
+  private static void appendMethod(StringBuilder source, Random random, int index) {
+    String indent = random.nextBoolean() ? "    " : "  ";
+    source
+        .append(indent)
+        .append("public int method")
+        .append(index)
+        .append("(String key,int limit)");
+    source.append(random.nextBoolean() ? "\n" + indent + "{\n" : " {\n");
+    source.append(indent).append(indent).append("List<Integer> list=values.get(key);\n");
+    source.append(indent).append(indent).append("if(list==null){\n");
+    source.append(indent).append(indent).append(indent).append("list = new ArrayList<>();");
+    source.append(" values.put(key,list);\n");
+    source.append(indent).append(indent).append("}\n");
+    source.append(indent).append(indent).append("int total    =   0;\n");
+    source.append(indent).append(indent).append("for (int i=0;i<limit;i++) {\n");
+    source.append(indent).append(indent).append(indent);
+    source.append("total += list.size() > i ? list.get(i) : ").append(random.nextInt(100));
+    source.append(";\n");
+    source.append(indent).append(indent).append("}\n");
+    source.append(indent).append(indent).append("return total\n");
+    source.append(indent).append(indent).append(indent).append(";\n");
+    source.append(indent).append("}\n\n");
+  }
+}
@@ -0,0 +1,44 @@
+/*
+ * Copyright 2019 John McDonnell.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.johnmcdonnell.netbeans.plugin.google.java.codeformatter;
+
+import javax.swing.SwingUtilities;
+import net.johnmcdonnell.netbeans.plugin.google.java.codeformatter.format.FormatterCache;
+import net.johnmcdonnell.netbeans.plugin.google.java.codeformatter.format.FormatterOptions;
+import net.johnmcdonnell.netbeans.plugin.google.java.codeformatter.task.IdleFormatter;
+import net.johnmcdonnell.netbeans.plugin.google.java.codeformatter.task.Preformatter;
+import org.openide.modules.OnStart;
+import org.openide.util.RequestProcessor;
+
+/**
+ * Warms up the shared formatter in the background once the IDE has started, so the first save does
+ * not pay the class loading cost on the editor thread, and starts watching editors for idle
+ * formatting and for documents to format ahead of their first save.
+ *
+ * @author John McDonnell
+ */
+@OnStart
+public class ModuleStartup implements Runnable {
+
+  private static final RequestProcessor RP = new RequestProcessor(ModuleStartup.class);
+
+  @Override
+  public void run() {
+    RP.post(() -> FormatterCache.warmUp(FormatterOptions.DEFAULT), 0, Thread.MIN_PRIORITY);
+    SwingUtilities.invokeLater(IdleFormatter::install);
+    SwingUtilities.invokeLater(Preformatter::install);
+  }
+}
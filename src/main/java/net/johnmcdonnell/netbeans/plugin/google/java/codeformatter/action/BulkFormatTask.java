@@ -0,0 +1,141 @@
+/*
+ * Copyright 2019 John McDonnell.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.johnmcdonnell.netbeans.plugin.google.java.codeformatter.action;
+
+import java.util.Collection;
+import java.util.List;
+import net.johnmcdonnell.netbeans.plugin.google.java.codeformatter.format.FormatterOptions;
+import net.johnmcdonnell.netbeans.plugin.google.java.codeformatter.format.GoogleCodeFormatter;
+import org.netbeans.api.progress.ProgressHandle;
+import org.openide.DialogDisplayer;
+import org.openide.NotifyDescriptor;
+import org.openide.filesystems.FileObject;
+import org.openide.filesystems.FileUtil;
+import org.openide.util.NbBundle;
+import org.openide.util.RequestProcessor;
+
+/**
+ * Runs a {@link BulkFormatter} in the background with a cancellable progress bar, and reports the
+ * changed files once it has finished.
+ *
+ * @author John McDonnell
+ */
+final class BulkFormatTask implements Runnable {
+
+  private static final RequestProcessor RP = new RequestProcessor(BulkFormatTask.class);
+
+  /** The most changed files listed in the summary. */
+  private static final int MAX_LISTED_FILES = 50;
+
+  private final String name;
+  private final FileObject base;
+  private final Collection<FileObject> roots;
+  private final FormatterOptions options;
+
+  private BulkFormatTask(
+      String name, FileObject base, Collection<FileObject> roots, FormatterOptions options) {
+    this.name = name;
+    this.base = base;
+    this.roots = roots;
+    this.options = options;
+  }
+
+  /**
+   * Starts formatting the roots.
+   *
+   * @param name the name of what is being formatted, shown in the progress bar
+   * @param base the folder the changed files are listed relative to
+   * @param roots the folders to format
+   * @param options the options to format with
+   */
+  static void start(
+      String name, FileObject base, Collection<FileObject> roots, FormatterOptions options) {
+    RP.post(new BulkFormatTask(name, base, roots, options));
+  }
+
+  @Override
+  public void run() {
+    BulkFormatter formatter = new BulkFormatter(new GoogleCodeFormatter().withOptions(options));
+    ProgressHandle progress =
+        ProgressHandle.createHandle(
+            NbBundle.getMessage(BulkFormatTask.class, "MSG_FormattingProgress", name),
+            () -> {
+              formatter.cancel();
+              return true;
+            });
+    progress.start();
+    BulkFormatter.Result result;
+    try {
+      result = formatter.format(roots, progress);
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+      return;
+    } finally {
+      progress.finish();
+    }
+
+    DialogDisplayer.getDefault()
+        .notifyLater(
+            new NotifyDescriptor.Message(
+                summary(result),
+                result.getFailedFiles().isEmpty() && result.getSkippedFiles().isEmpty()
+                    ? NotifyDescriptor.INFORMATION_MESSAGE
+                    : NotifyDescriptor.WARNING_MESSAGE));
+  }
+
+  private String summary(BulkFormatter.Result result) {
+    StringBuilder summary = new StringBuilder();
+    summary.append(
+        NbBundle.getMessage(
+            BulkFormatTask.class,
+            result.isCancelled() ? "MSG_FormattingCancelled" : "MSG_FormattingFinished",
+            name,
+            result.getChangedFiles().size(),
+            result.getFormattedCount(),
+            result.getFileCount()));
+    appendFiles(summary, base, "MSG_ChangedFiles", result.getChangedFiles());
+    appendFiles(summary, base, "MSG_FailedFiles", result.getFailedFiles());
+    appendFiles(summary, base, "MSG_SkippedFiles", result.getSkippedFiles());
+    return summary.toString();
+  }
+
+  /**
+   * Appends a heading and the paths of up to {@value #MAX_LISTED_FILES} of the files, relative to
+   * the base folder, to the summary.
+   */
+  static void appendFiles(
+      StringBuilder summary, FileObject base, String key, List<FileObject> files) {
+    if (files.isEmpty()) {
+      return;
+    }
+    summary.append("\n\n").append(NbBundle.getMessage(BulkFormatTask.class, key));
+    files.stream()
+        .limit(MAX_LISTED_FILES)
+        .forEach(file -> summary.append("\n  ").append(relativePath(base, file)));
+    if (files.size() > MAX_LISTED_FILES) {
+      summary
+          .append("\n  ")
+          .append(
+              NbBundle.getMessage(
+                  BulkFormatTask.class, "MSG_MoreFiles", files.size() - MAX_LISTED_FILES));
+    }
+  }
+
+  private static String relativePath(FileObject base, FileObject file) {
+    String relativePath = base == null ? null : FileUtil.getRelativePath(base, file);
+    return relativePath == null ? file.getPath() : relativePath;
+  }
+}
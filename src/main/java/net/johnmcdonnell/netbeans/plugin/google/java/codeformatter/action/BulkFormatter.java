@@ -0,0 +1,392 @@
+/*
+ * Copyright 2019 John McDonnell.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.johnmcdonnell.netbeans.plugin.google.java.codeformatter.action;
+
+import com.github.difflib.algorithm.DiffException;
+import com.github.difflib.patch.AbstractDelta;
+import com.google.common.collect.Range;
+import com.google.common.collect.RangeSet;
+import com.google.googlejavaformat.java.FormatterException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Document;
+import javax.swing.text.JTextComponent;
+import javax.swing.text.Segment;
+import javax.swing.text.StyledDocument;
+import net.johnmcdonnell.netbeans.plugin.google.java.codeformatter.format.BackgroundFormatter;
+import net.johnmcdonnell.netbeans.plugin.google.java.codeformatter.format.DocumentVersion;
+import net.johnmcdonnell.netbeans.plugin.google.java.codeformatter.format.FormattedStateIndex;
+import net.johnmcdonnell.netbeans.plugin.google.java.codeformatter.format.GoogleCodeFormatter;
+import net.johnmcdonnell.netbeans.plugin.google.java.codeformatter.format.GuardedRanges;
+import net.johnmcdonnell.netbeans.plugin.google.java.codeformatter.metrics.FormatMetrics;
+import net.johnmcdonnell.netbeans.plugin.google.java.codeformatter.metrics.FormatTrace;
+import net.johnmcdonnell.netbeans.plugin.google.java.codeformatter.metrics.FormatTrace.Phase;
+import net.johnmcdonnell.netbeans.plugin.google.java.codeformatter.metrics.FormatTrace.Trigger;
+import org.netbeans.api.editor.EditorRegistry;
+import org.netbeans.api.progress.ProgressHandle;
+import org.netbeans.api.queries.FileEncodingQuery;
+import org.netbeans.modules.editor.NbEditorUtilities;
+import org.openide.filesystems.FileObject;
+import org.openide.text.NbDocument;
+
+/**
+ * Formats every Java file below a set of folders, spreading the work over all available cores.
+ * Files open in an editor are formatted through their document so that the change can be undone;
+ * all others are rewritten on disk directly. Either way the files are recorded as formatted in the
+ * {@link FormattedStateIndex}. A document is formatted from a snapshot of its text, and the changes
+ * are only applied if it has not been edited since, like the {@link BackgroundFormatter} does.
+ *
+ * @author John McDonnell
+ */
+public class BulkFormatter {
+
+  private static final Logger LOG = Logger.getLogger(BulkFormatter.class.getName());
+
+  /** The number of times an open document is formatted before it is skipped for being edited. */
+  private static final int MAX_DOCUMENT_ATTEMPTS = 3;
+
+  private final GoogleCodeFormatter formatter;
+  private final Function<FileObject, Charset> encodings;
+  private final FormattedStateIndex index;
+  private final AtomicBoolean cancelled = new AtomicBoolean();
+
+  public BulkFormatter(GoogleCodeFormatter formatter) {
+    this(formatter, FileEncodingQuery::getEncoding, FormattedStateIndex.getDefault());
+  }
+
+  BulkFormatter(
+      GoogleCodeFormatter formatter,
+      Function<FileObject, Charset> encodings,
+      FormattedStateIndex index) {
+    this.formatter = Objects.requireNonNull(formatter);
+    this.encodings = Objects.requireNonNull(encodings);
+    this.index = Objects.requireNonNull(index);
+  }
+
+  /** Stops formatting further files; files already being formatted are finished. */
+  public void cancel() {
+    cancelled.set(true);
+  }
+
+  /**
+   * Formats the Java files below the given folders.
+   *
+   * @param roots the folders to format
+   * @param progress reports the files formatted so far, may be {@code null}
+   * @return the outcome of the run
+   */
+  public Result format(Collection<FileObject> roots, ProgressHandle progress)
+      throws InterruptedException {
+    return format(roots, progress, getOpenDocuments());
+  }
+
+  /**
+   * Formats the Java files below the given folders, formatting those with an open document through
+   * the document.
+   */
+  Result format(
+      Collection<FileObject> roots,
+      ProgressHandle progress,
+      Map<FileObject, StyledDocument> openDocuments)
+      throws InterruptedException {
+    List<FileObject> files = findJavaFiles(roots);
+    if (progress != null) {
+      progress.switchToDeterminate(files.size());
+    }
+
+    List<FileObject> changed = Collections.synchronizedList(new ArrayList<>());
+    List<FileObject> failed = Collections.synchronizedList(new ArrayList<>());
+    List<FileObject> skipped = Collections.synchronizedList(new ArrayList<>());
+    AtomicInteger done = new AtomicInteger();
+    ForkJoinPool pool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+    try {
+      pool.submit(
+              () ->
+                  files
+                      .parallelStream()
+                      .forEach(
+                          file -> {
+                            if (cancelled.get()) {
+                              return;
+                            }
+                            try {
+                              switch (formatFile(file, openDocuments.get(file))) {
+                                case CHANGED:
+                                  changed.add(file);
+                                  break;
+                                case SKIPPED:
+                                  skipped.add(file);
+                                  break;
+                                default:
+                                  break;
+                              }
+                            } catch (IOException
+                                | FormatterException
+                                | DiffException
+                                | BadLocationException
+                                | RuntimeException ex) {
+                              LOG.log(Level.INFO, "Unable to format " + file.getPath(), ex);
+                              failed.add(file);
+                            }
+                            int count = done.incrementAndGet();
+                            if (progress != null) {
+                              progress.progress(file.getNameExt(), count);
+                            }
+                          }))
+          .get();
+    } catch (ExecutionException ex) {
+      throw new IllegalStateException(ex.getCause());
+    } finally {
+      pool.shutdown();
+    }
+    return new Result(files.size(), done.get(), changed, failed, skipped, cancelled.get());
+  }
+
+  private Outcome formatFile(FileObject file, StyledDocument document)
+      throws IOException, FormatterException, DiffException, BadLocationException {
+    if (document != null) {
+      return formatDocument(file, document);
+    }
+
+    FormatTrace trace = new FormatTrace(Trigger.BULK);
+    long start = System.nanoTime();
+    Charset encoding = encodings.apply(file);
+    String existingText = file.asText(encoding.name());
+    trace.setDocumentLength(existingText.length());
+    trace.addSince(Phase.READ, start);
+    start = System.nanoTime();
+    String formattedText = formatter.formatText(existingText);
+    trace.addSince(Phase.FORMAT, start);
+    boolean changed = formattedText != existingText;
+    if (changed) {
+      start = System.nanoTime();
+      try (OutputStream out = file.getOutputStream()) {
+        out.write(formattedText.getBytes(encoding));
+      }
+      trace.addSince(Phase.APPLY, start);
+    }
+    FormatMetrics.getDefault().record(trace);
+    index.record(
+        file.getPath(),
+        file.lastModified().getTime(),
+        formattedText,
+        formatter.getOptions().fingerprint(),
+        true);
+    return changed ? Outcome.CHANGED : Outcome.UNCHANGED;
+  }
+
+  /**
+   * Formats a snapshot of the open document and applies the changes if the document has not been
+   * edited since the snapshot was taken, trying again with a new snapshot if it has.
+   */
+  private Outcome formatDocument(FileObject file, StyledDocument document)
+      throws FormatterException, DiffException, BadLocationException {
+    for (int attempt = 0; attempt < MAX_DOCUMENT_ATTEMPTS; attempt++) {
+      FormatTrace trace = new FormatTrace(Trigger.BULK);
+      Snapshot snapshot = new Snapshot();
+      long start = System.nanoTime();
+      document.render(() -> snapshot.take(document));
+      trace.addSince(Phase.READ, start);
+      if (snapshot.failure != null) {
+        throw snapshot.failure;
+      }
+      List<AbstractDelta<String>> deltas =
+          formatter.computeDeltas(document, snapshot.text, snapshot.ranges, trace);
+
+      BadLocationException[] failure = new BadLocationException[1];
+      boolean[] unedited = new boolean[1];
+      NbDocument.runAtomicAsUser(
+          document,
+          () -> {
+            if (DocumentVersion.get(document) != snapshot.version) {
+              return;
+            }
+            unedited[0] = true;
+            try {
+              formatter.applyDeltas(document, deltas, trace);
+              recordFormatted(file, document);
+            } catch (BadLocationException ex) {
+              failure[0] = ex;
+            }
+          });
+      if (failure[0] != null) {
+        throw failure[0];
+      }
+      if (unedited[0]) {
+        FormatMetrics.getDefault().record(trace);
+        return deltas.isEmpty() ? Outcome.UNCHANGED : Outcome.CHANGED;
+      }
+    }
+    return Outcome.SKIPPED;
+  }
+
+  /**
+   * Records that the open document is formatted, reading its text under the lock its changes were
+   * applied in. Its modification time is not known until it has been saved, so the entry is matched
+   * by content hash the first time the file is checked.
+   */
+  private void recordFormatted(FileObject file, StyledDocument document)
+      throws BadLocationException {
+    if (GuardedRanges.get(document) != null) {
+      // Guarded sections are left as they are, so the document may not be fully formatted
+      return;
+    }
+    Segment text = new Segment();
+    document.getText(0, document.getLength(), text);
+    index.record(
+        file.getPath(),
+        FormattedStateIndex.UNKNOWN_MODIFICATION_TIME,
+        text,
+        formatter.getOptions().fingerprint(),
+        true);
+  }
+
+  /**
+   * Collects the documents of the open editors up front, rather than looking up a data object for
+   * each of the files being formatted.
+   */
+  private static Map<FileObject, StyledDocument> getOpenDocuments() {
+    Map<FileObject, StyledDocument> documents = new HashMap<>();
+    for (JTextComponent component : EditorRegistry.componentList()) {
+      Document document = component.getDocument();
+      if (document instanceof StyledDocument) {
+        FileObject file = NbEditorUtilities.getFileObject(document);
+        if (file != null) {
+          documents.put(file, (StyledDocument) document);
+        }
+      }
+    }
+    return documents;
+  }
+
+  static List<FileObject> findJavaFiles(Collection<FileObject> roots) {
+    List<FileObject> files = new ArrayList<>();
+    for (FileObject root : roots) {
+      if (root.isData()) {
+        addIfJava(files, root);
+        continue;
+      }
+      Enumeration<? extends FileObject> children = root.getChildren(true);
+      while (children.hasMoreElements()) {
+        addIfJava(files, children.nextElement());
+      }
+    }
+    return files;
+  }
+
+  private static void addIfJava(List<FileObject> files, FileObject file) {
+    if (file.isData() && "java".equals(file.getExt())) {
+      files.add(file);
+    }
+  }
+
+  /** What became of a single file. */
+  private enum Outcome {
+    CHANGED,
+    UNCHANGED,
+    SKIPPED
+  }
+
+  /** The text of an open document and the ranges to format, read under the document lock. */
+  private static final class Snapshot {
+
+    private String text;
+    private long version;
+    private Collection<Range<Integer>> ranges;
+    private BadLocationException failure;
+
+    void take(StyledDocument document) {
+      try {
+        text = document.getText(0, document.getLength());
+        version = DocumentVersion.get(document);
+        RangeSet<Integer> guarded = GuardedRanges.get(document);
+        ranges = guarded == null ? null : GuardedRanges.exclude(null, guarded, text.length());
+      } catch (BadLocationException ex) {
+        failure = ex;
+      }
+    }
+  }
+
+  /** The outcome of formatting a set of folders. */
+  public static final class Result {
+
+    private final int fileCount;
+    private final int formattedCount;
+    private final List<FileObject> changed;
+    private final List<FileObject> failed;
+    private final List<FileObject> skipped;
+    private final boolean cancelled;
+
+    Result(
+        int fileCount,
+        int formattedCount,
+        List<FileObject> changed,
+        List<FileObject> failed,
+        List<FileObject> skipped,
+        boolean cancelled) {
+      this.fileCount = fileCount;
+      this.formattedCount = formattedCount;
+      this.changed = changed;
+      this.failed = failed;
+      this.skipped = skipped;
+      this.cancelled = cancelled;
+    }
+
+    /** The number of Java files found. */
+    public int getFileCount() {
+      return fileCount;
+    }
+
+    /** The number of files formatted before the run finished or was cancelled. */
+    public int getFormattedCount() {
+      return formattedCount;
+    }
+
+    public List<FileObject> getChangedFiles() {
+      return changed;
+    }
+
+    public List<FileObject> getFailedFiles() {
+      return failed;
+    }
+
+    /** The open files left as they were, because they kept being edited while being formatted. */
+    public List<FileObject> getSkippedFiles() {
+      return skipped;
+    }
+
+    public boolean isCancelled() {
+      return cancelled;
+    }
+  }
+}
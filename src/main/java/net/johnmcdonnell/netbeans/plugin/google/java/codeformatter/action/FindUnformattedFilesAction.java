@@ -0,0 +1,102 @@
+/*
+ * Copyright 2019 John McDonnell.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.johnmcdonnell.netbeans.plugin.google.java.codeformatter.action;
+
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.util.ArrayList;
+import java.util.List;
+import net.johnmcdonnell.netbeans.plugin.google.java.codeformatter.format.FormatterOptions;
+import net.johnmcdonnell.netbeans.plugin.google.java.codeformatter.format.GoogleCodeFormatter;
+import net.johnmcdonnell.netbeans.plugin.google.java.codeformatter.settings.FormatterSettings;
+import org.netbeans.api.java.project.JavaProjectConstants;
+import org.netbeans.api.progress.ProgressHandle;
+import org.netbeans.api.project.Project;
+import org.netbeans.api.project.ProjectUtils;
+import org.netbeans.api.project.SourceGroup;
+import org.openide.DialogDisplayer;
+import org.openide.NotifyDescriptor;
+import org.openide.awt.ActionID;
+import org.openide.awt.ActionReference;
+import org.openide.awt.ActionRegistration;
+import org.openide.filesystems.FileObject;
+import org.openide.util.NbBundle;
+import org.openide.util.RequestProcessor;
+
+/** @author John McDonnell */
+@ActionID(
+    category = "Source",
+    id =
+        "net.johnmcdonnell.netbeans.plugin.google.java.codeformatter.action.FindUnformattedFilesAction")
+@ActionRegistration(displayName = "#CTL_FindUnformattedFilesAction")
+@ActionReference(path = "Projects/Actions", position = 1510)
+public final class FindUnformattedFilesAction implements ActionListener {
+
+  private static final RequestProcessor RP = new RequestProcessor(FindUnformattedFilesAction.class);
+
+  private final Project project;
+
+  public FindUnformattedFilesAction(Project project) {
+    this.project = project;
+  }
+
+  @Override
+  public void actionPerformed(ActionEvent e) {
+    List<FileObject> roots = new ArrayList<>();
+    for (SourceGroup sourceGroup :
+        ProjectUtils.getSources(project).getSourceGroups(JavaProjectConstants.SOURCES_TYPE_JAVA)) {
+      roots.add(sourceGroup.getRootFolder());
+    }
+    String name = ProjectUtils.getInformation(project).getDisplayName();
+    FormatterOptions options = FormatterSettings.forProject(project).getOptions();
+    RP.post(() -> find(name, roots, options));
+  }
+
+  private void find(String name, List<FileObject> roots, FormatterOptions options) {
+    ProgressHandle progress =
+        ProgressHandle.createHandle(
+            NbBundle.getMessage(FindUnformattedFilesAction.class, "MSG_CheckingProgress", name));
+    progress.start();
+    List<FileObject> unformatted;
+    try {
+      unformatted =
+          new UnformattedFilesFinder(new GoogleCodeFormatter().withOptions(options))
+              .find(roots, progress);
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+      return;
+    } finally {
+      progress.finish();
+    }
+
+    StringBuilder summary =
+        new StringBuilder(
+            NbBundle.getMessage(
+                FindUnformattedFilesAction.class,
+                "MSG_CheckingFinished",
+                name,
+                unformatted.size()));
+    BulkFormatTask.appendFiles(
+        summary, project.getProjectDirectory(), "MSG_UnformattedFiles", unformatted);
+    DialogDisplayer.getDefault()
+        .notifyLater(
+            new NotifyDescriptor.Message(
+                summary.toString(),
+                unformatted.isEmpty()
+                    ? NotifyDescriptor.INFORMATION_MESSAGE
+                    : NotifyDescriptor.WARNING_MESSAGE));
+  }
+}
@@ -0,0 +1,51 @@
+/*
+ * Copyright 2019 John McDonnell.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.johnmcdonnell.netbeans.plugin.google.java.codeformatter.action;
+
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.util.Collections;
+import net.johnmcdonnell.netbeans.plugin.google.java.codeformatter.settings.FormatterSettings;
+import org.openide.awt.ActionID;
+import org.openide.awt.ActionReference;
+import org.openide.awt.ActionRegistration;
+import org.openide.filesystems.FileObject;
+import org.openide.loaders.DataFolder;
+
+/** @author John McDonnell */
+@ActionID(
+    category = "Source",
+    id = "net.johnmcdonnell.netbeans.plugin.google.java.codeformatter.action.FormatFolderAction")
+@ActionRegistration(displayName = "#CTL_FormatFolderAction")
+@ActionReference(path = "Loaders/folder/any/Actions", position = 1500)
+public final class FormatFolderAction implements ActionListener {
+
+  private final DataFolder folder;
+
+  public FormatFolderAction(DataFolder folder) {
+    this.folder = folder;
+  }
+
+  @Override
+  public void actionPerformed(ActionEvent e) {
+    FileObject root = folder.getPrimaryFile();
+    BulkFormatTask.start(
+        root.getNameExt(),
+        root,
+        Collections.singleton(root),
+        FormatterSettings.forFile(root).getOptions());
+  }
+}
@@ -0,0 +1,59 @@
+/*
+ * Copyright 2019 John McDonnell.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.johnmcdonnell.netbeans.plugin.google.java.codeformatter.action;
+
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.util.ArrayList;
+import java.util.List;
+import net.johnmcdonnell.netbeans.plugin.google.java.codeformatter.settings.FormatterSettings;
+import org.netbeans.api.java.project.JavaProjectConstants;
+import org.netbeans.api.project.Project;
+import org.netbeans.api.project.ProjectUtils;
+import org.netbeans.api.project.SourceGroup;
+import org.openide.awt.ActionID;
+import org.openide.awt.ActionReference;
+import org.openide.awt.ActionRegistration;
+import org.openide.filesystems.FileObject;
+
+/** @author John McDonnell */
+@ActionID(
+    category = "Source",
+    id = "net.johnmcdonnell.netbeans.plugin.google.java.codeformatter.action.FormatProjectAction")
+@ActionRegistration(displayName = "#CTL_FormatProjectAction")
+@ActionReference(path = "Projects/Actions", position = 1500)
+public final class FormatProjectAction implements ActionListener {
+
+  private final Project project;
+
+  public FormatProjectAction(Project project) {
+    this.project = project;
+  }
+
+  @Override
+  public void actionPerformed(ActionEvent e) {
+    List<FileObject> roots = new ArrayList<>();
+    for (SourceGroup sourceGroup :
+        ProjectUtils.getSources(project).getSourceGroups(JavaProjectConstants.SOURCES_TYPE_JAVA)) {
+      roots.add(sourceGroup.getRootFolder());
+    }
+    BulkFormatTask.start(
+        ProjectUtils.getInformation(project).getDisplayName(),
+        project.getProjectDirectory(),
+        roots,
+        FormatterSettings.forProject(project).getOptions());
+  }
+}
@@ -0,0 +1,139 @@
+/*
+ * Copyright 2019 John McDonnell.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.johnmcdonnell.netbeans.plugin.google.java.codeformatter.action;
+
+import com.google.googlejavaformat.java.FormatterException;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import net.johnmcdonnell.netbeans.plugin.google.java.codeformatter.format.FormattedStateIndex;
+import net.johnmcdonnell.netbeans.plugin.google.java.codeformatter.format.GoogleCodeFormatter;
+import org.netbeans.api.progress.ProgressHandle;
+import org.netbeans.api.queries.FileEncodingQuery;
+import org.openide.filesystems.FileObject;
+
+/**
+ * Finds the Java files below a set of folders that are not formatted, as saved on disk. Files are
+ * looked up in the {@link FormattedStateIndex} first, so only those changed since they were last
+ * checked are read, and only those whose content changed are formatted.
+ *
+ * @author John McDonnell
+ */
+public class UnformattedFilesFinder {
+
+  private static final Logger LOG = Logger.getLogger(UnformattedFilesFinder.class.getName());
+
+  private final GoogleCodeFormatter formatter;
+  private final Function<FileObject, Charset> encodings;
+  private final FormattedStateIndex index;
+
+  public UnformattedFilesFinder(GoogleCodeFormatter formatter) {
+    this(formatter, FileEncodingQuery::getEncoding, FormattedStateIndex.getDefault());
+  }
+
+  UnformattedFilesFinder(
+      GoogleCodeFormatter formatter,
+      Function<FileObject, Charset> encodings,
+      FormattedStateIndex index) {
+    this.formatter = Objects.requireNonNull(formatter);
+    this.encodings = Objects.requireNonNull(encodings);
+    this.index = Objects.requireNonNull(index);
+  }
+
+  /**
+   * Finds the unformatted Java files below the given folders. Files that cannot be formatted, such
+   * as those with syntax errors, are reported as unformatted.
+   *
+   * @param roots the folders to check
+   * @param progress reports the files checked so far, may be {@code null}
+   * @return the unformatted files
+   */
+  public List<FileObject> find(Collection<FileObject> roots, ProgressHandle progress)
+      throws InterruptedException {
+    List<FileObject> files = BulkFormatter.findJavaFiles(roots);
+    if (progress != null) {
+      progress.switchToDeterminate(files.size());
+    }
+
+    List<FileObject> unformatted = Collections.synchronizedList(new ArrayList<>());
+    AtomicInteger done = new AtomicInteger();
+    ForkJoinPool pool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+    try {
+      pool.submit(
+              () ->
+                  files
+                      .parallelStream()
+                      .forEach(
+                          file -> {
+                            if (!isFormatted(file)) {
+                              unformatted.add(file);
+                            }
+                            int count = done.incrementAndGet();
+                            if (progress != null) {
+                              progress.progress(file.getNameExt(), count);
+                            }
+                          }))
+          .get();
+    } catch (ExecutionException ex) {
+      throw new IllegalStateException(ex.getCause());
+    } finally {
+      pool.shutdown();
+    }
+    unformatted.sort((a, b) -> a.getPath().compareTo(b.getPath()));
+    return unformatted;
+  }
+
+  private boolean isFormatted(FileObject file) {
+    String path = file.getPath();
+    long modificationTime = file.lastModified().getTime();
+    long optionsFingerprint = formatter.getOptions().fingerprint();
+    Boolean formatted = index.isFormatted(path, modificationTime, optionsFingerprint);
+    if (formatted != null) {
+      return formatted;
+    }
+
+    String text;
+    try {
+      text = file.asText(encodings.apply(file).name());
+    } catch (IOException ex) {
+      LOG.log(Level.INFO, "Unable to read " + path, ex);
+      return false;
+    }
+    formatted = index.isFormatted(path, modificationTime, text, optionsFingerprint);
+    if (formatted != null) {
+      return formatted;
+    }
+
+    boolean isFormatted;
+    try {
+      isFormatted = formatter.formatText(text) == text;
+    } catch (FormatterException ex) {
+      isFormatted = false;
+    }
+    index.record(path, modificationTime, text, optionsFingerprint, isFormatted);
+    return isFormatted;
+  }
+}
@@ -0,0 +1,241 @@
+/*
+ * Copyright 2019 John McDonnell.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.johnmcdonnell.netbeans.plugin.google.java.codeformatter.cli;
+
+import com.google.googlejavaformat.java.FormatterException;
+import com.google.googlejavaformat.java.JavaFormatterOptions.Style;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import net.johnmcdonnell.netbeans.plugin.google.java.codeformatter.format.FormattedContentCache;
+import net.johnmcdonnell.netbeans.plugin.google.java.codeformatter.format.FormattedStateIndex;
+import net.johnmcdonnell.netbeans.plugin.google.java.codeformatter.format.FormatterOptions;
+import net.johnmcdonnell.netbeans.plugin.google.java.codeformatter.format.GoogleCodeFormatter;
+
+/**
+ * Formats, or checks the formatting of, the Java files below a set of paths in one JVM, using the
+ * same engine and options as the IDE. Files are formatted in parallel, and with {@code --index} the
+ * content hashes of files already found to be formatted are kept between runs, so that unchanged
+ * files are skipped without being parsed.
+ *
+ * <p>The exit status is 0 when every file is formatted, 1 when {@code --check} found unformatted
+ * files, and 2 when a file could not be formatted or the arguments are wrong.
+ *
+ * @author John McDonnell
+ */
+public final class FormatterCli {
+
+  static final int EXIT_OK = 0;
+  static final int EXIT_UNFORMATTED = 1;
+  static final int EXIT_ERROR = 2;
+
+  private static final String USAGE =
+      "Usage: FormatterCli [--check] [--aosp] [--skip-removing-unused-imports]"
+          + " [--skip-sorting-imports] [--encoding <charset>] [--index <file>] <path>...";
+
+  private final GoogleCodeFormatter formatter;
+  private final FormattedStateIndex index;
+  private final Charset encoding;
+  private final boolean check;
+
+  FormatterCli(
+      GoogleCodeFormatter formatter, FormattedStateIndex index, Charset encoding, boolean check) {
+    this.formatter = formatter;
+    this.index = index;
+    this.encoding = encoding;
+    this.check = check;
+  }
+
+  public static void main(String[] args) {
+    System.exit(run(args, System.out, System.err));
+  }
+
+  /**
+   * Runs the formatter with the given command line, printing the files that were changed, or that
+   * are not formatted when checking, to {@code out}.
+   *
+   * @return the exit status
+   */
+  static int run(String[] args, PrintStream out, PrintStream err) {
+    boolean check = false;
+    Style style = Style.GOOGLE;
+    boolean removeUnusedImports = true;
+    boolean sortImports = true;
+    Charset encoding = StandardCharsets.UTF_8;
+    FormattedStateIndex index = null;
+    List<Path> roots = new ArrayList<>();
+    try {
+      for (int i = 0; i < args.length; i++) {
+        switch (args[i]) {
+          case "--check":
+            check = true;
+            break;
+          case "--aosp":
+            style = Style.AOSP;
+            break;
+          case "--skip-removing-unused-imports":
+            removeUnusedImports = false;
+            break;
+          case "--skip-sorting-imports":
+            sortImports = false;
+            break;
+          case "--encoding":
+            encoding = Charset.forName(args[++i]);
+            break;
+          case "--index":
+            index = new FormattedStateIndex(new File(args[++i]));
+            break;
+          default:
+            if (args[i].startsWith("--")) {
+              throw new IllegalArgumentException("Unknown option " + args[i]);
+            }
+            roots.add(Paths.get(args[i]));
+        }
+      }
+    } catch (ArrayIndexOutOfBoundsException | IllegalArgumentException ex) {
+      err.println(ex instanceof ArrayIndexOutOfBoundsException ? USAGE : ex.getMessage());
+      return EXIT_ERROR;
+    }
+    if (roots.isEmpty()) {
+      err.println(USAGE);
+      return EXIT_ERROR;
+    }
+
+    GoogleCodeFormatter formatter =
+        new GoogleCodeFormatter(FormattedContentCache.getDefault())
+            .withOptions(new FormatterOptions(style, removeUnusedImports, sortImports));
+    FormatterCli cli = new FormatterCli(formatter, index, encoding, check);
+    try {
+      return cli.format(findJavaFiles(roots), out, err);
+    } catch (IOException ex) {
+      err.println(ex);
+      return EXIT_ERROR;
+    } finally {
+      if (index != null) {
+        index.flush();
+      }
+    }
+  }
+
+  /** Formats or checks the files on all available cores, and returns the exit status. */
+  int format(List<Path> files, PrintStream out, PrintStream err) {
+    TreeSet<Path> reported = new TreeSet<>();
+    TreeSet<Path> failed = new TreeSet<>();
+    ForkJoinPool pool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+    try {
+      pool.submit(
+              () ->
+                  files
+                      .parallelStream()
+                      .forEach(
+                          file -> {
+                            try {
+                              if (!formatFile(file)) {
+                                synchronized (reported) {
+                                  reported.add(file);
+                                }
+                              }
+                            } catch (IOException | FormatterException | RuntimeException ex) {
+                              synchronized (failed) {
+                                failed.add(file);
+                              }
+                              err.println(file + ": " + ex.getMessage());
+                            }
+                          }))
+          .get();
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+      return EXIT_ERROR;
+    } catch (ExecutionException ex) {
+      throw new IllegalStateException(ex.getCause());
+    } finally {
+      pool.shutdown();
+    }
+
+    reported.forEach(out::println);
+    if (!failed.isEmpty()) {
+      return EXIT_ERROR;
+    }
+    return check && !reported.isEmpty() ? EXIT_UNFORMATTED : EXIT_OK;
+  }
+
+  /**
+   * Formats the file, or only checks it with {@code --check}, skipping the formatter when the index
+   * knows the file to be formatted.
+   *
+   * @return whether the file was already formatted
+   */
+  private boolean formatFile(Path file) throws IOException, FormatterException {
+    String path = file.toAbsolutePath().toString();
+    long optionsFingerprint = formatter.getOptions().fingerprint();
+    long modificationTime = Files.getLastModifiedTime(file).toMillis();
+    if (index != null
+        && Boolean.TRUE.equals(index.isFormatted(path, modificationTime, optionsFingerprint))) {
+      return true;
+    }
+
+    String existingText = new String(Files.readAllBytes(file), encoding);
+    if (index != null
+        && Boolean.TRUE.equals(
+            index.isFormatted(path, modificationTime, existingText, optionsFingerprint))) {
+      return true;
+    }
+    String formattedText = formatter.formatText(existingText);
+    if (formattedText == existingText) {
+      record(path, modificationTime, existingText, true);
+      return true;
+    }
+    if (check) {
+      record(path, modificationTime, existingText, false);
+    } else {
+      Files.write(file, formattedText.getBytes(encoding));
+      record(path, Files.getLastModifiedTime(file).toMillis(), formattedText, true);
+    }
+    return false;
+  }
+
+  private void record(String path, long modificationTime, String text, boolean formatted) {
+    if (index != null) {
+      index.record(path, modificationTime, text, formatter.getOptions().fingerprint(), formatted);
+    }
+  }
+
+  static List<Path> findJavaFiles(List<Path> roots) throws IOException {
+    TreeSet<Path> files = new TreeSet<>();
+    for (Path root : roots) {
+      try (Stream<Path> paths = Files.walk(root)) {
+        files.addAll(
+            paths
+                .filter(path -> path.toString().endsWith(".java") && Files.isRegularFile(path))
+                .collect(Collectors.toList()));
+      }
+    }
+    return Collections.unmodifiableList(new ArrayList<>(files));
+  }
+}
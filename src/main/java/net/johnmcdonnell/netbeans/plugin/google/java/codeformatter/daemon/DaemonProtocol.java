@@ -0,0 +1,143 @@
+/*
+ * Copyright 2019 John McDonnell.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.johnmcdonnell.netbeans.plugin.google.java.codeformatter.daemon;
+
+import com.google.common.collect.Range;
+import com.google.googlejavaformat.java.JavaFormatterOptions.Style;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.ProtocolException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import net.johnmcdonnell.netbeans.plugin.google.java.codeformatter.format.FormatterOptions;
+
+/**
+ * The frames exchanged with the formatter daemon. After the client has sent the token it was
+ * started with, each request is an id, the formatter options, the ranges to format and the text;
+ * each response is the id of its request, a status and the formatted text or an error message.
+ * Requests may be sent before earlier responses have arrived, and responses may arrive in any
+ * order.
+ *
+ * <p>Frames are checked as they are read, before anything is allocated for them, and a malformed
+ * frame ends the connection with a {@link ProtocolException}.
+ *
+ * @author John McDonnell
+ */
+final class DaemonProtocol {
+
+  static final byte OK = 0;
+  static final byte FORMATTER_ERROR = 1;
+  static final byte FAILURE = 2;
+
+  /** The range count sent to format the whole text. */
+  private static final int WHOLE_TEXT = -1;
+
+  /** The most bytes of UTF-8 a text may take, well beyond any source file worth formatting. */
+  static final int MAX_TEXT_BYTES = 64 * 1024 * 1024;
+
+  /** The most ranges a request may have. */
+  private static final int MAX_RANGES = 64 * 1024;
+
+  private DaemonProtocol() {}
+
+  static void writeRequest(
+      DataOutputStream out,
+      int id,
+      FormatterOptions options,
+      Collection<Range<Integer>> ranges,
+      String text)
+      throws IOException {
+    out.writeInt(id);
+    out.writeInt(options.getStyle().ordinal());
+    out.writeBoolean(options.isRemoveUnusedImports());
+    out.writeBoolean(options.isSortImports());
+    if (ranges == null) {
+      out.writeInt(WHOLE_TEXT);
+    } else {
+      out.writeInt(ranges.size());
+      for (Range<Integer> range : ranges) {
+        out.writeInt(range.lowerEndpoint());
+        out.writeInt(range.upperEndpoint());
+      }
+    }
+    writeText(out, text);
+  }
+
+  /** Reads the options of a request, after its id. */
+  static FormatterOptions readOptions(DataInputStream in) throws IOException {
+    int style = in.readInt();
+    if (style < 0 || style >= Style.values().length) {
+      throw new ProtocolException("Unknown style " + style);
+    }
+    return new FormatterOptions(Style.values()[style], in.readBoolean(), in.readBoolean());
+  }
+
+  /** Reads the ranges of a request, after its options; {@code null} means the whole text. */
+  static List<Range<Integer>> readRanges(DataInputStream in) throws IOException {
+    int count = in.readInt();
+    if (count == WHOLE_TEXT) {
+      return null;
+    }
+    if (count < 0 || count > MAX_RANGES) {
+      throw new ProtocolException("Invalid range count " + count);
+    }
+    List<Range<Integer>> ranges = new ArrayList<>(count);
+    for (int i = 0; i < count; i++) {
+      int lower = in.readInt();
+      int upper = in.readInt();
+      if (lower < 0 || upper < lower) {
+        throw new ProtocolException("Invalid range [" + lower + ", " + upper + ")");
+      }
+      ranges.add(Range.closedOpen(lower, upper));
+    }
+    return ranges;
+  }
+
+  static void writeResponse(DataOutputStream out, int id, byte status, String text)
+      throws IOException {
+    out.writeInt(id);
+    out.writeByte(status);
+    writeText(out, text);
+  }
+
+  static void writeText(DataOutputStream out, String text) throws IOException {
+    byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+    out.writeInt(bytes.length);
+    out.write(bytes);
+  }
+
+  static String readText(DataInputStream in) throws IOException {
+    return new String(readBytes(in, MAX_TEXT_BYTES), StandardCharsets.UTF_8);
+  }
+
+  /**
+   * Reads a length and that many bytes.
+   *
+   * @param maxLength the longest length accepted, checked before the bytes are allocated
+   */
+  static byte[] readBytes(DataInputStream in, int maxLength) throws IOException {
+    int length = in.readInt();
+    if (length < 0 || length > maxLength) {
+      throw new ProtocolException("Invalid length " + length);
+    }
+    byte[] bytes = new byte[length];
+    in.readFully(bytes);
+    return bytes;
+  }
+}
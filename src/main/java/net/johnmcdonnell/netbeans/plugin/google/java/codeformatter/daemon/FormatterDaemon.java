@@ -0,0 +1,180 @@
+/*
+ * Copyright 2019 John McDonnell.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.johnmcdonnell.netbeans.plugin.google.java.codeformatter.daemon;
+
+import com.google.common.collect.Range;
+import com.google.googlejavaformat.java.FormatterException;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import net.johnmcdonnell.netbeans.plugin.google.java.codeformatter.format.FormatterCache;
+import net.johnmcdonnell.netbeans.plugin.google.java.codeformatter.format.FormatterOptions;
+
+/**
+ * Formats source text for the IDE in a separate JVM, so that the allocations of a large format do
+ * not land on the editor heap. The daemon listens on a loopback port, serves only clients that
+ * present the token it was given, and exits when the IDE closes its standard input.
+ *
+ * <p>It only depends on google-java-format and the classes it uses, never on the NetBeans APIs.
+ *
+ * @author John McDonnell
+ */
+public final class FormatterDaemon implements Closeable {
+
+  private final ServerSocket serverSocket;
+  private final byte[] token;
+  private final ExecutorService workers =
+      Executors.newFixedThreadPool(
+          Runtime.getRuntime().availableProcessors(),
+          runnable -> {
+            Thread thread = new Thread(runnable, "google-java-format daemon worker");
+            thread.setDaemon(true);
+            return thread;
+          });
+
+  FormatterDaemon(ServerSocket serverSocket, String token) {
+    this.serverSocket = serverSocket;
+    this.token = token.getBytes(StandardCharsets.UTF_8);
+  }
+
+  /**
+   * Starts the daemon. The token is read from the first line of standard input, and the port
+   * written to standard output once the daemon is listening.
+   */
+  public static void main(String[] args) throws IOException {
+    BufferedReader stdin =
+        new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8));
+    String token = stdin.readLine();
+    if (token == null) {
+      return;
+    }
+    ServerSocket serverSocket = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+    FormatterDaemon daemon = new FormatterDaemon(serverSocket, token);
+
+    Thread watchdog =
+        new Thread(
+            () -> {
+              try {
+                while (stdin.read() >= 0) {
+                  // Nothing else is sent; the stream only closes when the IDE goes away
+                }
+              } catch (IOException ex) {
+                // Treated the same as the stream closing
+              }
+              System.exit(0);
+            },
+            "google-java-format daemon watchdog");
+    watchdog.setDaemon(true);
+    watchdog.start();
+
+    FormatterCache.warmUp(FormatterOptions.DEFAULT);
+    System.out.println(serverSocket.getLocalPort());
+    System.out.flush();
+    daemon.serve();
+  }
+
+  /** Accepts connections until the daemon is closed. */
+  void serve() {
+    while (!serverSocket.isClosed()) {
+      Socket socket;
+      try {
+        socket = serverSocket.accept();
+      } catch (IOException ex) {
+        return;
+      }
+      Thread connection = new Thread(() -> handle(socket), "google-java-format daemon connection");
+      connection.setDaemon(true);
+      connection.start();
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    workers.shutdownNow();
+    serverSocket.close();
+  }
+
+  private void handle(Socket socket) {
+    try (Socket s = socket;
+        DataInputStream in = new DataInputStream(new BufferedInputStream(s.getInputStream()));
+        DataOutputStream out =
+            new DataOutputStream(new BufferedOutputStream(s.getOutputStream()))) {
+      s.setTcpNoDelay(true);
+      // A client without the token can make the daemon allocate no more than the token's length
+      byte[] presented = DaemonProtocol.readBytes(in, token.length);
+      if (!MessageDigest.isEqual(token, presented)) {
+        return;
+      }
+      while (true) {
+        int id = in.readInt();
+        FormatterOptions options = DaemonProtocol.readOptions(in);
+        List<Range<Integer>> ranges = DaemonProtocol.readRanges(in);
+        String text = DaemonProtocol.readText(in);
+        try {
+          workers.execute(() -> respond(out, id, options, ranges, text));
+        } catch (RejectedExecutionException ex) {
+          return;
+        }
+      }
+    } catch (IOException ex) {
+      // The client has gone away, or sent a malformed frame
+    } catch (RuntimeException ex) {
+      // A request the formatter cannot take, which only ends this connection
+    }
+  }
+
+  private static void respond(
+      DataOutputStream out,
+      int id,
+      FormatterOptions options,
+      List<Range<Integer>> ranges,
+      String text) {
+    byte status;
+    String result;
+    try {
+      result = FormatterCache.format(options, text, ranges);
+      status = DaemonProtocol.OK;
+    } catch (FormatterException ex) {
+      result = String.valueOf(ex.getMessage());
+      status = DaemonProtocol.FORMATTER_ERROR;
+    } catch (RuntimeException | StackOverflowError ex) {
+      result = String.valueOf(ex);
+      status = DaemonProtocol.FAILURE;
+    }
+    synchronized (out) {
+      try {
+        DaemonProtocol.writeResponse(out, id, status, result);
+        out.flush();
+      } catch (IOException ex) {
+        // The client has gone away, and the connection thread will notice
+      }
+    }
+  }
+}
@@ -0,0 +1,396 @@
+/*
+ * Copyright 2019 John McDonnell.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.johnmcdonnell.netbeans.plugin.google.java.codeformatter.daemon;
+
+import com.google.common.collect.Range;
+import com.google.googlejavaformat.java.Formatter;
+import com.google.googlejavaformat.java.FormatterException;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.lang.ProcessBuilder.Redirect;
+import java.math.BigInteger;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.security.CodeSource;
+import java.security.SecureRandom;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import net.johnmcdonnell.netbeans.plugin.google.java.codeformatter.format.FormatterOptions;
+
+/**
+ * Sends source text to a {@link FormatterDaemon} running in its own JVM. The daemon is started on
+ * first use and started again if it dies. Requests from any number of threads share one connection,
+ * and each is sent without waiting for the responses to earlier ones.
+ *
+ * <p>When the daemon cannot be reached, or has had to be restarted too often, requests fail with an
+ * {@link IOException}, and callers are expected to format in process instead. A daemon that has
+ * left a request unanswered for {@value #TIMEOUT_MILLIS} ms is taken to be stuck, and is replaced.
+ *
+ * @author John McDonnell
+ */
+public final class FormatterDaemonClient implements Closeable {
+
+  /** The system property that enables formatting in the daemon, set to {@code true}. */
+  public static final String ENABLED_PROPERTY =
+      "net.johnmcdonnell.netbeans.plugin.google.java.codeformatter.daemon";
+
+  private static final Logger LOG = Logger.getLogger(FormatterDaemonClient.class.getName());
+
+  private static final long TIMEOUT_MILLIS = 30_000;
+  private static final int MAX_LAUNCHES = 3;
+  private static final long LAUNCH_WINDOW_MILLIS = 60_000;
+
+  /** The classes whose jars make up the daemon's class path. */
+  private static final String[] CLASS_PATH_CLASSES = {
+    FormatterDaemon.class.getName(),
+    Formatter.class.getName(),
+    Range.class.getName(),
+    "com.google.common.util.concurrent.internal.InternalFutureFailureAccess",
+    "org.openjdk.tools.javac.main.Main"
+  };
+
+  private static final FormatterDaemonClient DEFAULT =
+      new FormatterDaemonClient(FormatterDaemonClient::launchProcess);
+
+  private final Launcher launcher;
+  private final AtomicInteger nextId = new AtomicInteger();
+  private final Deque<Long> launchTimes = new ArrayDeque<>();
+  private Connection connection;
+
+  FormatterDaemonClient(Launcher launcher) {
+    this.launcher = launcher;
+  }
+
+  public static boolean isEnabled() {
+    return Boolean.getBoolean(ENABLED_PROPERTY);
+  }
+
+  public static FormatterDaemonClient getDefault() {
+    return DEFAULT;
+  }
+
+  /**
+   * Formats the given character ranges of the text, along with its imports, in the daemon.
+   *
+   * @param ranges the character ranges to format, or {@code null} to format the whole text
+   * @throws IOException if the daemon is unavailable or did not answer in time
+   */
+  public String format(FormatterOptions options, String text, Collection<Range<Integer>> ranges)
+      throws IOException, FormatterException {
+    return awaitUnlessStuck(submit(options, text, ranges));
+  }
+
+  /**
+   * Formats the given character ranges of the text, along with its imports, in the daemon, waiting
+   * no longer than the caller's time budget for the result. A request past the budget is left to
+   * the daemon, which is replaced if it never answers.
+   *
+   * @param ranges the character ranges to format, or {@code null} to format the whole text
+   * @param timeoutMillis the time budget, or 0 to wait until the daemon is taken to be stuck
+   * @throws IOException if the daemon is unavailable or stuck
+   * @throws TimeoutException if the daemon did not answer within the time budget
+   */
+  public String format(
+      FormatterOptions options, String text, Collection<Range<Integer>> ranges, long timeoutMillis)
+      throws IOException, FormatterException, TimeoutException {
+    if (timeoutMillis <= 0 || timeoutMillis >= TIMEOUT_MILLIS) {
+      return format(options, text, ranges);
+    }
+    return await(submit(options, text, ranges), timeoutMillis);
+  }
+
+  /** Closes the connection and stops the daemon; it is started again by the next request. */
+  @Override
+  public synchronized void close() {
+    if (connection != null) {
+      connection.close(new IOException("Formatter daemon closed"));
+      connection = null;
+    }
+  }
+
+  private CompletableFuture<String> submit(
+      FormatterOptions options, String text, Collection<Range<Integer>> ranges) throws IOException {
+    Connection current = getConnection();
+    int id = nextId.incrementAndGet();
+    Request request = new Request();
+    current.pending.put(id, request);
+    if (!current.isOpen()) {
+      current.close(new IOException("Formatter daemon connection closed"));
+      throw new IOException("Formatter daemon connection closed");
+    }
+    try {
+      synchronized (current.out) {
+        DaemonProtocol.writeRequest(current.out, id, options, ranges, text);
+        current.out.flush();
+      }
+    } catch (IOException ex) {
+      current.close(ex);
+      throw ex;
+    }
+    return request.result;
+  }
+
+  /** Waits for the result, replacing the daemon if it does not answer in time. */
+  private String awaitUnlessStuck(CompletableFuture<String> result)
+      throws IOException, FormatterException {
+    try {
+      return await(result, TIMEOUT_MILLIS);
+    } catch (TimeoutException ex) {
+      // A daemon that does not answer is stuck, so it is replaced
+      close();
+      throw new IOException("Formatter daemon did not answer in time", ex);
+    }
+  }
+
+  private static String await(CompletableFuture<String> result, long timeoutMillis)
+      throws IOException, FormatterException, TimeoutException {
+    try {
+      return result.get(timeoutMillis, TimeUnit.MILLISECONDS);
+    } catch (ExecutionException ex) {
+      if (ex.getCause() instanceof FormatterException) {
+        throw (FormatterException) ex.getCause();
+      }
+      throw new IOException(ex.getCause());
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException();
+    }
+  }
+
+  private synchronized Connection getConnection() throws IOException {
+    if (connection != null && connection.isOpen() && !connection.isStuck()) {
+      return connection;
+    }
+    long now = System.currentTimeMillis();
+    while (!launchTimes.isEmpty() && now - launchTimes.peekFirst() > LAUNCH_WINDOW_MILLIS) {
+      launchTimes.removeFirst();
+    }
+    if (launchTimes.size() >= MAX_LAUNCHES) {
+      throw new IOException("Formatter daemon restarted too often, not starting it again yet");
+    }
+    launchTimes.addLast(now);
+    if (connection != null) {
+      LOG.log(Level.INFO, "Restarting the formatter daemon");
+      connection.close(new IOException("Formatter daemon restarted"));
+    }
+
+    Endpoint endpoint = launcher.launch();
+    Socket socket = null;
+    try {
+      socket = new Socket(InetAddress.getLoopbackAddress(), endpoint.port);
+      socket.setTcpNoDelay(true);
+      connection = new Connection(socket, endpoint.process);
+      DaemonProtocol.writeText(connection.out, endpoint.token);
+      connection.out.flush();
+      connection.startReading();
+      return connection;
+    } catch (IOException ex) {
+      if (socket != null) {
+        socket.close();
+      }
+      if (endpoint.process != null) {
+        endpoint.process.destroy();
+      }
+      throw ex;
+    }
+  }
+
+  /** Starts the daemon in a new JVM, running the same Java as the IDE. */
+  private static Endpoint launchProcess() throws IOException {
+    List<String> command = new ArrayList<>();
+    command.add(Paths.get(System.getProperty("java.home"), "bin", "java").toString());
+    command.add("-cp");
+    command.add(classPath());
+    command.add(FormatterDaemon.class.getName());
+    Process process = new ProcessBuilder(command).redirectError(Redirect.INHERIT).start();
+    try {
+      String token = new BigInteger(130, new SecureRandom()).toString(32);
+      OutputStream stdin = process.getOutputStream();
+      stdin.write((token + "\n").getBytes(StandardCharsets.UTF_8));
+      stdin.flush();
+      // Standard input stays open: the daemon exits once it is closed, which happens when the IDE
+      // exits
+      String port =
+          new BufferedReader(
+                  new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8))
+              .readLine();
+      if (port == null) {
+        throw new IOException("Formatter daemon exited with " + process.waitFor());
+      }
+      return new Endpoint(Integer.parseInt(port.trim()), token, process);
+    } catch (IOException | NumberFormatException ex) {
+      process.destroy();
+      throw new IOException("Unable to start the formatter daemon", ex);
+    } catch (InterruptedException ex) {
+      process.destroy();
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException();
+    }
+  }
+
+  private static String classPath() throws IOException {
+    Set<String> entries = new LinkedHashSet<>();
+    ClassLoader loader = FormatterDaemonClient.class.getClassLoader();
+    for (String className : CLASS_PATH_CLASSES) {
+      try {
+        CodeSource codeSource =
+            Class.forName(className, false, loader).getProtectionDomain().getCodeSource();
+        if (codeSource != null) {
+          entries.add(Paths.get(codeSource.getLocation().toURI()).toString());
+        }
+      } catch (ClassNotFoundException | URISyntaxException | RuntimeException ex) {
+        LOG.log(Level.FINE, "No class path entry for " + className, ex);
+      }
+    }
+    if (entries.isEmpty()) {
+      throw new IOException("Unable to find the formatter daemon class path");
+    }
+    return String.join(File.pathSeparator, entries);
+  }
+
+  /** Starts a daemon and tells the client where to find it. */
+  interface Launcher {
+
+    Endpoint launch() throws IOException;
+  }
+
+  /** A started daemon. */
+  static final class Endpoint {
+
+    private final int port;
+    private final String token;
+    private final Process process;
+
+    /** @param process the daemon's process, or {@code null} if it is not running in one */
+    Endpoint(int port, String token, Process process) {
+      this.port = port;
+      this.token = token;
+      this.process = process;
+    }
+  }
+
+  /** A request sent to the daemon, and when it was sent. */
+  private static final class Request {
+
+    private final CompletableFuture<String> result = new CompletableFuture<>();
+    private final long sentAt = System.nanoTime();
+  }
+
+  /** A connection to a daemon, and the requests it has not yet answered. */
+  private static final class Connection {
+
+    private final Socket socket;
+    private final Process process;
+    private final DataOutputStream out;
+    private final Map<Integer, Request> pending = new ConcurrentHashMap<>();
+    private volatile boolean open = true;
+
+    Connection(Socket socket, Process process) throws IOException {
+      this.socket = socket;
+      this.process = process;
+      this.out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+    }
+
+    boolean isOpen() {
+      return open && (process == null || process.isAlive());
+    }
+
+    /** Returns whether a request has gone unanswered for longer than the daemon should take. */
+    boolean isStuck() {
+      long now = System.nanoTime();
+      for (Request request : pending.values()) {
+        if (now - request.sentAt > TimeUnit.MILLISECONDS.toNanos(TIMEOUT_MILLIS)) {
+          return true;
+        }
+      }
+      return false;
+    }
+
+    void startReading() {
+      Thread reader = new Thread(this::read, "google-java-format daemon client");
+      reader.setDaemon(true);
+      reader.start();
+    }
+
+    private void read() {
+      try (DataInputStream in =
+          new DataInputStream(new BufferedInputStream(socket.getInputStream()))) {
+        while (true) {
+          int id = in.readInt();
+          byte status = in.readByte();
+          String text = DaemonProtocol.readText(in);
+          Request request = pending.remove(id);
+          if (request == null) {
+            continue;
+          }
+          if (status == DaemonProtocol.OK) {
+            request.result.complete(text);
+          } else if (status == DaemonProtocol.FORMATTER_ERROR) {
+            request.result.completeExceptionally(new FormatterException(text));
+          } else {
+            request.result.completeExceptionally(new IOException(text));
+          }
+        }
+      } catch (IOException ex) {
+        close(ex);
+      }
+    }
+
+    void close(IOException cause) {
+      open = false;
+      try {
+        socket.close();
+      } catch (IOException ex) {
+        // Already closed
+      }
+      if (process != null) {
+        process.destroy();
+      }
+      for (Integer id : pending.keySet()) {
+        Request request = pending.remove(id);
+        if (request != null) {
+          request.result.completeExceptionally(cause);
+        }
+      }
+    }
+  }
+}
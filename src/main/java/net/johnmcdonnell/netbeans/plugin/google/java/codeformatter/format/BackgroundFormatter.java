@@ -0,0 +1,261 @@
+/*
+ * Copyright 2019 John McDonnell.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.johnmcdonnell.netbeans.plugin.google.java.codeformatter.format;
+
+import com.github.difflib.algorithm.DiffException;
+import com.github.difflib.patch.AbstractDelta;
+import com.google.common.collect.Range;
+import com.google.common.collect.RangeSet;
+import com.google.googlejavaformat.java.FormatterException;
+import java.util.Collection;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.StyledDocument;
+import net.johnmcdonnell.netbeans.plugin.google.java.codeformatter.format.FormatScheduler.Priority;
+import net.johnmcdonnell.netbeans.plugin.google.java.codeformatter.metrics.FormatMetrics;
+import net.johnmcdonnell.netbeans.plugin.google.java.codeformatter.metrics.FormatTrace;
+import net.johnmcdonnell.netbeans.plugin.google.java.codeformatter.metrics.FormatTrace.Phase;
+import net.johnmcdonnell.netbeans.plugin.google.java.codeformatter.metrics.FormatTrace.Trigger;
+import org.openide.text.NbDocument;
+import org.openide.util.Exceptions;
+
+/**
+ * Formats a snapshot of a document on a worker thread and applies the result only if the document
+ * has not been edited in the meantime.
+ *
+ * @author John McDonnell
+ */
+public class BackgroundFormatter {
+
+  private static final Logger LOG = Logger.getLogger(BackgroundFormatter.class.getName());
+
+  private final GoogleCodeFormatter formatter;
+  private final FormatScheduler scheduler;
+
+  public BackgroundFormatter(GoogleCodeFormatter formatter) {
+    this(formatter, FormatScheduler.getDefault());
+  }
+
+  public BackgroundFormatter(GoogleCodeFormatter formatter, FormatScheduler scheduler) {
+    this.formatter = Objects.requireNonNull(formatter);
+    this.scheduler = Objects.requireNonNull(scheduler);
+  }
+
+  /**
+   * Schedules the document to be formatted as a save.
+   *
+   * @see #schedule(StyledDocument, boolean, Priority, FormatTrace, Runnable)
+   */
+  public Job schedule(
+      StyledDocument document, boolean changedLinesOnly, FormatTrace trace, Runnable afterApply) {
+    return schedule(document, changedLinesOnly, Priority.SAVE, trace, afterApply);
+  }
+
+  /**
+   * Schedules the document to be formatted.
+   *
+   * @param document the document to format
+   * @param changedLinesOnly whether to format only the lines edited since the last format
+   * @param priority how urgently the document should be formatted
+   * @param trace records the time taken by each phase, and is passed to {@link FormatMetrics} once
+   *     the job has finished
+   * @param afterApply run on the worker thread once formatting changes have been applied, and not
+   *     when the document could not be formatted or the changes could not be applied
+   * @return the scheduled job, which can be used to cancel it, or {@code null} if the scheduler has
+   *     too many jobs in flight to take another, in which case the caller should format the
+   *     document itself
+   */
+  public Job schedule(
+      StyledDocument document,
+      boolean changedLinesOnly,
+      Priority priority,
+      FormatTrace trace,
+      Runnable afterApply) {
+    FormatScheduler.Slot slot = scheduler.reserve();
+    if (slot == null) {
+      return null;
+    }
+    Snapshot snapshot = new Snapshot(changedLinesOnly ? DirtyRegionTracker.get(document) : null);
+    long start = System.nanoTime();
+    document.render(() -> snapshot.take(document));
+    trace.addSince(Phase.READ, start);
+    Job job = new Job();
+    if (snapshot.failure != null) {
+      Exceptions.printStackTrace(snapshot.failure);
+      slot.release();
+      job.cancel();
+      return job;
+    }
+
+    job.task =
+        slot.submit(
+            priority,
+            () -> {
+              boolean applied = job.run(document, snapshot, trace);
+              if (!job.cancelled.get()) {
+                FormatMetrics.getDefault().record(trace);
+              }
+              if (applied && afterApply != null) {
+                afterApply.run();
+              }
+            });
+    return job;
+  }
+
+  /**
+   * Formats the whole document on the calling thread, without applying the result, and keeps the
+   * deltas in the cache for the version of the document they were computed from. The time taken is
+   * recorded as a {@link Trigger#BACKGROUND} format.
+   *
+   * @return whether the deltas were computed
+   */
+  public boolean preformat(StyledDocument document, PreformatCache cache) {
+    FormatTrace trace = new FormatTrace(Trigger.BACKGROUND);
+    Snapshot snapshot = new Snapshot(null);
+    long start = System.nanoTime();
+    document.render(() -> snapshot.take(document));
+    trace.addSince(Phase.READ, start);
+    if (snapshot.failure != null) {
+      Exceptions.printStackTrace(snapshot.failure);
+      return false;
+    }
+    try {
+      List<AbstractDelta<String>> deltas =
+          formatter.computeDeltas(document, snapshot.text, snapshot.ranges, trace);
+      cache.put(document, snapshot.version, formatter.getOptions().fingerprint(), deltas);
+      FormatMetrics.getDefault().record(trace);
+      return true;
+    } catch (FormatterException ex) {
+      LOG.log(Level.FINE, "Unable to format the document", ex);
+      return false;
+    } catch (DiffException ex) {
+      Exceptions.printStackTrace(ex);
+      return false;
+    }
+  }
+
+  /** The state of a document at the time it was scheduled, read under the document lock. */
+  private static final class Snapshot {
+
+    private final DirtyRegionTracker tracker;
+    private String text;
+    private long version;
+    private Collection<Range<Integer>> ranges;
+    private BadLocationException failure;
+
+    Snapshot(DirtyRegionTracker tracker) {
+      this.tracker = tracker;
+    }
+
+    void take(StyledDocument document) {
+      try {
+        text = document.getText(0, document.getLength());
+        version = DocumentVersion.get(document);
+        ranges = tracker == null ? null : tracker.getChangedRanges(text);
+        RangeSet<Integer> guarded = GuardedRanges.get(document);
+        if (guarded != null) {
+          ranges = GuardedRanges.exclude(ranges, guarded, text.length());
+        }
+      } catch (BadLocationException ex) {
+        failure = ex;
+      }
+    }
+  }
+
+  /** A scheduled background format of a single document. */
+  public final class Job {
+
+    private final AtomicBoolean cancelled = new AtomicBoolean();
+    private volatile FormatScheduler.Task task;
+    private volatile boolean applied;
+
+    private Job() {}
+
+    /**
+     * Cancels the job. A job that has not started yet is removed from the queue; a running job
+     * finishes formatting but its result is discarded.
+     *
+     * @return {@code true} if the job had not already applied its changes
+     */
+    public boolean cancel() {
+      cancelled.set(true);
+      FormatScheduler.Task scheduled = task;
+      if (scheduled != null) {
+        scheduled.cancel();
+      }
+      return !applied;
+    }
+
+    /** Blocks until the job has finished or has been cancelled. */
+    public void waitFinished() {
+      FormatScheduler.Task scheduled = task;
+      if (scheduled != null) {
+        scheduled.waitFinished();
+      }
+    }
+
+    private boolean run(StyledDocument document, Snapshot snapshot, FormatTrace trace) {
+      if (cancelled.get()) {
+        return false;
+      }
+      DirtyRegionTracker tracker = snapshot.tracker;
+      try {
+        List<AbstractDelta<String>> deltas =
+            formatter.computeDeltas(document, snapshot.text, snapshot.ranges, trace);
+        if ((deltas.isEmpty() && tracker == null) || cancelled.get()) {
+          return false;
+        }
+        BadLocationException[] failure = new BadLocationException[1];
+        // Applied as a user edit, which guarded text refuses, while holding off other writers
+        NbDocument.runAtomicAsUser(
+            document,
+            () -> {
+              if (!cancelled.get() && DocumentVersion.get(document) == snapshot.version) {
+                try {
+                  if (!deltas.isEmpty()) {
+                    formatter.applyDeltas(document, deltas, trace);
+                    applied = true;
+                  }
+                  if (tracker != null) {
+                    tracker.reset();
+                  }
+                } catch (BadLocationException ex) {
+                  failure[0] = ex;
+                }
+              }
+            });
+        if (failure[0] != null) {
+          Exceptions.printStackTrace(failure[0]);
+        }
+        return applied;
+      } catch (BadLocationException ex) {
+        Exceptions.printStackTrace(ex);
+        return false;
+      } catch (FormatterException ex) {
+        // Text being typed often does not parse yet, and is formatted once it does
+        LOG.log(Level.FINE, "Unable to format the document", ex);
+        return false;
+      } catch (DiffException ex) {
+        Exceptions.printStackTrace(ex);
+        return false;
+      }
+    }
+  }
+}
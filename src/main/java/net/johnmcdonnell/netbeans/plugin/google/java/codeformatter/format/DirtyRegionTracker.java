@@ -0,0 +1,140 @@
+/*
+ * Copyright 2019 John McDonnell.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.johnmcdonnell.netbeans.plugin.google.java.codeformatter.format;
+
+import com.google.common.collect.Range;
+import com.google.common.collect.RangeSet;
+import com.google.common.collect.TreeRangeSet;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Document;
+import javax.swing.text.Position;
+
+/**
+ * Records the regions of a document edited since the last time it was formatted, so that only the
+ * lines around those edits need to be formatted again.
+ *
+ * @author John McDonnell
+ */
+public final class DirtyRegionTracker implements DocumentListener {
+
+  private static final String TRACKER_PROPERTY = DirtyRegionTracker.class.getName();
+
+  /** Past this many separate edits the whole document is formatted instead. */
+  private static final int MAX_REGIONS = 256;
+
+  private final Document document;
+  private final List<Position[]> regions = new ArrayList<>();
+  private boolean complete;
+
+  private DirtyRegionTracker(Document document) {
+    this.document = document;
+  }
+
+  /**
+   * Returns the tracker for the document, attaching one if needed. A newly attached tracker has not
+   * seen the edits made before it, so it reports the whole document as changed until {@link
+   * #reset()} is called.
+   */
+  public static DirtyRegionTracker get(Document document) {
+    synchronized (document) {
+      DirtyRegionTracker tracker = (DirtyRegionTracker) document.getProperty(TRACKER_PROPERTY);
+      if (tracker == null) {
+        tracker = new DirtyRegionTracker(document);
+        document.putProperty(TRACKER_PROPERTY, tracker);
+        document.addDocumentListener(tracker);
+      }
+      return tracker;
+    }
+  }
+
+  /**
+   * Returns the character ranges of the text, widened to whole lines, that were edited since the
+   * last reset, or {@code null} if the whole document has to be formatted.
+   *
+   * @param text the current text of the document
+   */
+  public synchronized Collection<Range<Integer>> getChangedRanges(String text) {
+    if (!complete) {
+      return null;
+    }
+    RangeSet<Integer> changed = TreeRangeSet.create();
+    int length = text.length();
+    for (Position[] region : regions) {
+      int start = Math.min(region[0].getOffset(), length);
+      int end = Math.min(Math.max(region[1].getOffset(), start), length);
+      int lineStart = text.lastIndexOf('\n', start - 1) + 1;
+      int lineEnd = text.indexOf('\n', end);
+      if (lineEnd < 0) {
+        lineEnd = length;
+      }
+      if (lineStart < length) {
+        changed.add(Range.closedOpen(lineStart, Math.max(lineEnd, lineStart + 1)));
+      }
+    }
+    return changed.asRanges();
+  }
+
+  /**
+   * Returns whether every edit since the last reset is known, so that {@link #getChangedRanges}
+   * does not report the whole document.
+   */
+  public synchronized boolean isComplete() {
+    return complete;
+  }
+
+  /** Forgets all recorded edits; called once the document has been formatted. */
+  public synchronized void reset() {
+    regions.clear();
+    complete = true;
+  }
+
+  @Override
+  public void insertUpdate(DocumentEvent e) {
+    addRegion(e.getOffset(), e.getOffset() + e.getLength());
+  }
+
+  @Override
+  public void removeUpdate(DocumentEvent e) {
+    addRegion(e.getOffset(), e.getOffset());
+  }
+
+  @Override
+  public void changedUpdate(DocumentEvent e) {
+    // Attribute changes do not alter the text
+  }
+
+  private synchronized void addRegion(int start, int end) {
+    if (!complete) {
+      return;
+    }
+    if (regions.size() >= MAX_REGIONS) {
+      regions.clear();
+      complete = false;
+      return;
+    }
+    try {
+      regions.add(new Position[] {document.createPosition(start), document.createPosition(end)});
+    } catch (BadLocationException ex) {
+      regions.clear();
+      complete = false;
+    }
+  }
+}
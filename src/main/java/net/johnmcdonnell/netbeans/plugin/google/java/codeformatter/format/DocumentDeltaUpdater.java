@@ -16,12 +16,14 @@
 package net.johnmcdonnell.netbeans.plugin.google.java.codeformatter.format;
 
 import com.github.difflib.patch.AbstractDelta;
+import com.google.common.collect.RangeSet;
 import java.util.List;
 import java.util.Objects;
+import javax.swing.text.AbstractDocument;
 import javax.swing.text.BadLocationException;
-import javax.swing.text.Element;
+import javax.swing.text.Segment;
 import javax.swing.text.StyledDocument;
-import org.openide.text.NbDocument;
+import net.johnmcdonnell.netbeans.plugin.google.java.codeformatter.metrics.FormatTrace;
 import org.openide.util.Exceptions;
 
 /** @author John McDonnell */
@@ -29,66 +31,81 @@ public class DocumentDeltaUpdater implements Runnable {
 
   private final List<AbstractDelta<String>> deltas;
   private final StyledDocument document;
+  private final FormatTrace trace;
+  private final RangeSet<Integer> guarded;
 
   public DocumentDeltaUpdater(List<AbstractDelta<String>> deltas, StyledDocument document) {
+    this(deltas, document, new FormatTrace());
+  }
+
+  public DocumentDeltaUpdater(
+      List<AbstractDelta<String>> deltas, StyledDocument document, FormatTrace trace) {
+    this(deltas, document, trace, null);
+  }
+
+  /**
+   * Creates an updater that leaves the guarded ranges of the document alone, skipping any
+   * replacement that would change them.
+   *
+   * @param guarded the guarded ranges, or {@code null} if there are none
+   */
+  public DocumentDeltaUpdater(
+      List<AbstractDelta<String>> deltas,
+      StyledDocument document,
+      FormatTrace trace,
+      RangeSet<Integer> guarded) {
     this.deltas = Objects.requireNonNull(deltas);
     this.document = Objects.requireNonNull(document);
+    this.trace = Objects.requireNonNull(trace);
+    this.guarded = guarded;
   }
 
+  /**
+   * Applies the deltas as the smallest character replacements that produce the same text, with
+   * those separated only by spaces merged into one edit, see {@link TextReplacements#coalesce}.
+   * They are applied from the end of the document backwards, so the offsets of the replacements
+   * still to apply are never affected, and positions outside the changed characters are kept.
+   */
   @Override
   public void run() {
-    for (AbstractDelta<String> delta : deltas) {
-      try {
-        switch (delta.getType()) {
-          case DELETE:
-            removeLinesFromDocument(delta);
-            break;
-          case INSERT:
-            insertLinesToDocument(delta);
-            break;
-          case CHANGE:
-            removeLinesFromDocument(delta);
-            insertLinesToDocument(delta);
-            break;
-          default:
-            // Only other option is EQUALS and we have nothing to do
-            break;
-        }
-      } catch (BadLocationException ex) {
-        Exceptions.printStackTrace(ex);
-      }
+    try {
+      apply();
+    } catch (BadLocationException ex) {
+      Exceptions.printStackTrace(ex);
     }
   }
 
-  private void insertLinesToDocument(AbstractDelta<String> delta) throws BadLocationException {
-    int position = delta.getTarget().getPosition();
-    int findLineOffset = NbDocument.findLineOffset(document, position);
-
-    StringBuilder contentToAdd = new StringBuilder();
-    delta
-        .getTarget()
-        .getLines()
-        .forEach(
-            (String line) -> {
-              contentToAdd.append(line).append("\n");
-            });
-    document.insertString(findLineOffset, contentToAdd.toString(), null);
+  /**
+   * Applies the deltas like {@link #run()}, but leaves a failure to the caller.
+   *
+   * @throws BadLocationException if the deltas do not fit the document
+   */
+  void apply() throws BadLocationException {
+    // A view of the document's characters, read before the first edit invalidates it
+    Segment existingText = new Segment();
+    document.getText(0, document.getLength(), existingText);
+    List<TextReplacement> replacements = TextReplacements.fromDeltas(existingText, deltas);
+    if (guarded != null) {
+      replacements = GuardedRanges.filter(replacements, guarded);
+    }
+    replacements = TextReplacements.coalesce(existingText, replacements, guarded);
+    for (int i = replacements.size() - 1; i >= 0; i--) {
+      replace(replacements.get(i));
+    }
   }
 
-  private void removeLinesFromDocument(AbstractDelta<String> delta) throws BadLocationException {
-    int startOfChangeLineNumber = delta.getTarget().getPosition();
-    int offset = 0;
-
-    for (String line : delta.getSource().getLines()) {
-      offset += line.length() + "\n".length();
+  private void replace(TextReplacement replacement) throws BadLocationException {
+    trace.addEdit(replacement.getLength(), replacement.getText().length());
+    if (document instanceof AbstractDocument) {
+      ((AbstractDocument) document)
+          .replace(replacement.getOffset(), replacement.getLength(), replacement.getText(), null);
+      return;
     }
-
-    try {
-      Element rootLineElement = NbDocument.findLineRootElement(document);
-      Element element = rootLineElement.getElement(startOfChangeLineNumber);
-      document.remove(element.getStartOffset(), offset);
-    } catch (BadLocationException ex) {
-      Exceptions.printStackTrace(ex);
+    if (replacement.getLength() > 0) {
+      document.remove(replacement.getOffset(), replacement.getLength());
+    }
+    if (!replacement.getText().isEmpty()) {
+      document.insertString(replacement.getOffset(), replacement.getText(), null);
     }
   }
 }
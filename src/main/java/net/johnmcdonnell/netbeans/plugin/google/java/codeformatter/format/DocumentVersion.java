@@ -0,0 +1,78 @@
+/*
+ * Copyright 2019 John McDonnell.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.johnmcdonnell.netbeans.plugin.google.java.codeformatter.format;
+
+import java.util.concurrent.atomic.AtomicLong;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
+import javax.swing.text.Document;
+
+/**
+ * Tracks a modification counter per document so that work computed from a snapshot of the text can
+ * tell whether the document has been edited since the snapshot was taken.
+ *
+ * @author John McDonnell
+ */
+public final class DocumentVersion {
+
+  private static final String VERSION_PROPERTY = DocumentVersion.class.getName();
+
+  private DocumentVersion() {}
+
+  /**
+   * Returns the current version of the document, starting to track it if this is the first call for
+   * the document.
+   */
+  public static long get(Document document) {
+    return counter(document).get();
+  }
+
+  private static AtomicLong counter(Document document) {
+    synchronized (document) {
+      AtomicLong version = (AtomicLong) document.getProperty(VERSION_PROPERTY);
+      if (version == null) {
+        version = new AtomicLong();
+        document.putProperty(VERSION_PROPERTY, version);
+        document.addDocumentListener(new VersionListener(version));
+      }
+      return version;
+    }
+  }
+
+  private static final class VersionListener implements DocumentListener {
+
+    private final AtomicLong version;
+
+    VersionListener(AtomicLong version) {
+      this.version = version;
+    }
+
+    @Override
+    public void insertUpdate(DocumentEvent e) {
+      version.incrementAndGet();
+    }
+
+    @Override
+    public void removeUpdate(DocumentEvent e) {
+      version.incrementAndGet();
+    }
+
+    @Override
+    public void changedUpdate(DocumentEvent e) {
+      // Attribute changes do not alter the text
+    }
+  }
+}
@@ -0,0 +1,132 @@
+/*
+ * Copyright 2019 John McDonnell.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.johnmcdonnell.netbeans.plugin.google.java.codeformatter.format;
+
+import java.util.function.BooleanSupplier;
+import java.util.function.LongSupplier;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
+import javax.swing.text.Document;
+
+/**
+ * Stops formatting a document that keeps failing to format, because it does not parse or takes
+ * longer than the time budget, so that every save does not pay for another failed attempt.
+ *
+ * <p>After {@value #MAX_FAILURES} failures in a row the breaker opens and formats are skipped. It
+ * lets a single attempt through again once {@value #SUBSTANTIAL_CHANGE_CHARS} characters of the
+ * document have been edited, or {@value #COOLDOWN_MILLIS} ms have passed. If that attempt fails too
+ * the breaker opens again, and if it succeeds the breaker closes.
+ *
+ * <p>A format past its time budget keeps running, as the formatter cannot be interrupted. While it
+ * does, no other format of the document is started, so that a file that is slow to format holds at
+ * most one thread.
+ *
+ * @author John McDonnell
+ */
+public final class FormatCircuitBreaker implements DocumentListener {
+
+  private static final String BREAKER_PROPERTY = FormatCircuitBreaker.class.getName();
+
+  static final int MAX_FAILURES = 3;
+
+  static final int SUBSTANTIAL_CHANGE_CHARS = 64;
+
+  static final long COOLDOWN_MILLIS = 60_000;
+
+  private final LongSupplier clock;
+  private int failures;
+  private long openedAt;
+  private long changedChars;
+  private BooleanSupplier runaway;
+
+  FormatCircuitBreaker(LongSupplier clock) {
+    this.clock = clock;
+  }
+
+  /** Returns the breaker for the document, attaching a closed one if needed. */
+  public static FormatCircuitBreaker get(Document document) {
+    synchronized (document) {
+      FormatCircuitBreaker breaker = (FormatCircuitBreaker) document.getProperty(BREAKER_PROPERTY);
+      if (breaker == null) {
+        breaker = new FormatCircuitBreaker(System::currentTimeMillis);
+        document.putProperty(BREAKER_PROPERTY, breaker);
+        document.addDocumentListener(breaker);
+      }
+      return breaker;
+    }
+  }
+
+  /** Returns whether the document should be formatted. */
+  public synchronized boolean allowsFormat() {
+    if (runaway != null) {
+      if (runaway.getAsBoolean()) {
+        return false;
+      }
+      runaway = null;
+    }
+    if (failures < MAX_FAILURES) {
+      return true;
+    }
+    if (changedChars >= SUBSTANTIAL_CHANGE_CHARS
+        || clock.getAsLong() - openedAt >= COOLDOWN_MILLIS) {
+      // One more failure opens the breaker again
+      failures = MAX_FAILURES - 1;
+      return true;
+    }
+    return false;
+  }
+
+  /** Returns whether formats of the document are being skipped. */
+  public synchronized boolean isOpen() {
+    return failures >= MAX_FAILURES;
+  }
+
+  public synchronized void recordSuccess() {
+    failures = 0;
+  }
+
+  public synchronized void recordFailure() {
+    failures++;
+    if (failures >= MAX_FAILURES) {
+      openedAt = clock.getAsLong();
+      changedChars = 0;
+    }
+  }
+
+  /**
+   * Records a format that was abandoned past its time budget but is still running.
+   *
+   * @param running tells whether the format is still running
+   */
+  public synchronized void recordRunaway(BooleanSupplier running) {
+    runaway = running;
+  }
+
+  @Override
+  public synchronized void insertUpdate(DocumentEvent e) {
+    changedChars += e.getLength();
+  }
+
+  @Override
+  public synchronized void removeUpdate(DocumentEvent e) {
+    changedChars += e.getLength();
+  }
+
+  @Override
+  public void changedUpdate(DocumentEvent e) {
+    // Attribute changes do not change the text
+  }
+}
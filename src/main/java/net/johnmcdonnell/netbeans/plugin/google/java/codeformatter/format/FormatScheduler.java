@@ -0,0 +1,180 @@
+/*
+ * Copyright 2019 John McDonnell.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.johnmcdonnell.netbeans.plugin.google.java.codeformatter.format;
+
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs background formats on a pool of threads sized to the processors, taking the most urgent job
+ * first and jobs of the same priority in the order they were submitted.
+ *
+ * <p>Every job holds a snapshot of its document's text, so the number of jobs waiting or running is
+ * bounded. Once that many are in flight further submissions are refused rather than queued, and the
+ * caller formats the document itself, which slows the submitting thread down to the rate the pool
+ * keeps up with.
+ *
+ * @author John McDonnell
+ */
+public final class FormatScheduler {
+
+  /** How urgently a job should run, most urgent first. */
+  public enum Priority {
+    /** The document of the editor that has the focus, which the user is waiting on. */
+    FOCUSED,
+    /** A document being saved. */
+    SAVE,
+    /** Work nobody is waiting on, such as formatting ahead of a save. */
+    IDLE
+  }
+
+  private static final int THREADS = Runtime.getRuntime().availableProcessors();
+
+  /** The most jobs in flight for each thread, enough to keep the threads busy. */
+  private static final int PENDING_PER_THREAD = 4;
+
+  private static final FormatScheduler DEFAULT =
+      new FormatScheduler(THREADS, THREADS * PENDING_PER_THREAD);
+
+  private final ThreadPoolExecutor executor;
+  private final Semaphore permits;
+  private final AtomicLong sequence = new AtomicLong();
+
+  public FormatScheduler(int threads, int maxPending) {
+    this.executor =
+        new ThreadPoolExecutor(
+            threads,
+            threads,
+            1,
+            TimeUnit.MINUTES,
+            new PriorityBlockingQueue<>(),
+            new WorkerFactory());
+    this.executor.allowCoreThreadTimeOut(true);
+    this.permits = new Semaphore(maxPending);
+  }
+
+  public static FormatScheduler getDefault() {
+    return DEFAULT;
+  }
+
+  /**
+   * Reserves room for a job, which must be passed to {@link #submit} or released.
+   *
+   * @return the reservation, or {@code null} if the scheduler already has as many jobs in flight as
+   *     it allows
+   */
+  public Slot reserve() {
+    return permits.tryAcquire() ? new Slot() : null;
+  }
+
+  /** Returns the number of jobs waiting or running. */
+  public int getPendingCount() {
+    return executor.getQueue().size() + executor.getActiveCount();
+  }
+
+  /** Room for one job, held from before its snapshot is taken until it has finished. */
+  public final class Slot {
+
+    private final AtomicBoolean released = new AtomicBoolean();
+
+    private Slot() {}
+
+    /**
+     * Runs the job on the pool. The slot is released once the job has run or has been cancelled
+     * before starting.
+     */
+    public Task submit(Priority priority, Runnable job) {
+      Task task = new Task(this, priority, sequence.getAndIncrement(), job);
+      executor.execute(task);
+      return task;
+    }
+
+    /** Gives up the slot without running a job. */
+    public void release() {
+      if (released.compareAndSet(false, true)) {
+        permits.release();
+      }
+    }
+  }
+
+  /** A submitted job. */
+  public final class Task extends FutureTask<Void> implements Comparable<Task> {
+
+    private final Slot slot;
+    private final Priority priority;
+    private final long order;
+
+    private Task(Slot slot, Priority priority, long order, Runnable job) {
+      super(job, null);
+      this.slot = slot;
+      this.priority = priority;
+      this.order = order;
+    }
+
+    /** Removes the job from the queue if it has not started yet. */
+    public void cancel() {
+      if (cancel(false) && executor.remove(this)) {
+        slot.release();
+      }
+    }
+
+    /** Blocks until the job has finished or has been cancelled. */
+    public void waitFinished() {
+      try {
+        get();
+      } catch (Exception ex) {
+        // The job reports its own failures, and a cancelled job is finished
+      }
+    }
+
+    @Override
+    public void run() {
+      try {
+        super.run();
+      } finally {
+        slot.release();
+      }
+    }
+
+    @Override
+    public int compareTo(Task other) {
+      int compared = priority.compareTo(other.priority);
+      return compared != 0 ? compared : Long.compare(order, other.order);
+    }
+  }
+
+  /** Creates low priority daemon threads, so that formatting never holds up the user interface. */
+  private static final class WorkerFactory implements ThreadFactory {
+
+    private final AtomicInteger count = new AtomicInteger();
+
+    @Override
+    public Thread newThread(Runnable runnable) {
+      Thread thread =
+          new Thread(runnable, FormatScheduler.class.getName() + "-" + count.incrementAndGet());
+      thread.setDaemon(true);
+      thread.setPriority(Thread.MIN_PRIORITY + 1);
+      return thread;
+    }
+  }
+}
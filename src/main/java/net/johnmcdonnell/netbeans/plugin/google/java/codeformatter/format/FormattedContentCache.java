@@ -0,0 +1,132 @@
+/*
+ * Copyright 2019 John McDonnell.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.johnmcdonnell.netbeans.plugin.google.java.codeformatter.format;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Remembers the hashes of texts that are known to be formatted, so that saving an already formatted
+ * document does not need to run the formatter at all. Only hashes are kept, which keeps the memory
+ * used by the cache small and bounded.
+ *
+ * @author John McDonnell
+ */
+public final class FormattedContentCache {
+
+  private static final int DEFAULT_MAX_ENTRIES = 4096;
+
+  private static final FormattedContentCache DEFAULT =
+      new FormattedContentCache(DEFAULT_MAX_ENTRIES);
+
+  private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+  private static final long FNV_PRIME = 0x100000001b3L;
+
+  private final Map<Key, Boolean> formatted;
+  private final AtomicLong hits = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+
+  public FormattedContentCache(int maxEntries) {
+    this.formatted =
+        new LinkedHashMap<Key, Boolean>(16, 0.75f, true) {
+          @Override
+          protected boolean removeEldestEntry(Map.Entry<Key, Boolean> eldest) {
+            return size() > maxEntries;
+          }
+        };
+  }
+
+  public static FormattedContentCache getDefault() {
+    return DEFAULT;
+  }
+
+  /** Returns a 64 bit FNV-1a hash of the characters of the text. */
+  public static long hash(CharSequence text) {
+    long hash = FNV_OFFSET_BASIS;
+    for (int i = 0, length = text.length(); i < length; i++) {
+      char c = text.charAt(i);
+      hash = (hash ^ (c & 0xff)) * FNV_PRIME;
+      hash = (hash ^ (c >>> 8)) * FNV_PRIME;
+    }
+    return hash;
+  }
+
+  /**
+   * Returns whether the text is known to be formatted with the options identified by the
+   * fingerprint.
+   */
+  public boolean isFormatted(CharSequence text, long optionsFingerprint) {
+    Key key = new Key(hash(text), text.length(), optionsFingerprint);
+    boolean found;
+    synchronized (formatted) {
+      found = formatted.get(key) != null;
+    }
+    (found ? hits : misses).incrementAndGet();
+    return found;
+  }
+
+  /** Records that the text is formatted with the options identified by the fingerprint. */
+  public void markFormatted(CharSequence text, long optionsFingerprint) {
+    Key key = new Key(hash(text), text.length(), optionsFingerprint);
+    synchronized (formatted) {
+      formatted.put(key, Boolean.TRUE);
+    }
+  }
+
+  public long getHitCount() {
+    return hits.get();
+  }
+
+  public long getMissCount() {
+    return misses.get();
+  }
+
+  public int size() {
+    synchronized (formatted) {
+      return formatted.size();
+    }
+  }
+
+  private static final class Key {
+
+    private final long hash;
+    private final int length;
+    private final long optionsFingerprint;
+
+    Key(long hash, int length, long optionsFingerprint) {
+      this.hash = hash;
+      this.length = length;
+      this.optionsFingerprint = optionsFingerprint;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (!(obj instanceof Key)) {
+        return false;
+      }
+      Key other = (Key) obj;
+      return hash == other.hash
+          && length == other.length
+          && optionsFingerprint == other.optionsFingerprint;
+    }
+
+    @Override
+    public int hashCode() {
+      return Long.hashCode(hash) * 31 + Long.hashCode(optionsFingerprint);
+    }
+  }
+}
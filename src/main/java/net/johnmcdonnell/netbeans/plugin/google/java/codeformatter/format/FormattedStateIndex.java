@@ -0,0 +1,248 @@
+/*
+ * Copyright 2019 John McDonnell.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.johnmcdonnell.netbeans.plugin.google.java.codeformatter.format;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.openide.modules.Places;
+import org.openide.util.RequestProcessor;
+
+/**
+ * Remembers, across restarts, whether each file was formatted when it was last checked. An entry
+ * holds the file's modification time, the hash and length of its content, the fingerprint of the
+ * options it was checked with and the outcome. A file whose modification time is unchanged is not
+ * read at all; one whose content hash is unchanged is not formatted again.
+ *
+ * <p>The index is kept in memory and written to the NetBeans cache folder shortly after it changes,
+ * in a compact binary form.
+ *
+ * @author John McDonnell
+ */
+public final class FormattedStateIndex {
+
+  /** The modification time recorded when it is not known, which never matches a file. */
+  public static final long UNKNOWN_MODIFICATION_TIME = -1L;
+
+  private static final Logger LOG = Logger.getLogger(FormattedStateIndex.class.getName());
+
+  private static final int MAGIC = 0x474a4649;
+  private static final int VERSION = 1;
+  private static final int FLUSH_DELAY_MILLIS = 2000;
+
+  private static final RequestProcessor RP = new RequestProcessor(FormattedStateIndex.class);
+
+  private static volatile FormattedStateIndex defaultIndex;
+
+  private final File storage;
+  private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+  private final RequestProcessor.Task flushTask = RP.create(this::flush);
+  private volatile boolean loaded;
+
+  public FormattedStateIndex(File storage) {
+    this.storage = storage;
+  }
+
+  /** Returns the index stored in the NetBeans cache folder. */
+  public static FormattedStateIndex getDefault() {
+    FormattedStateIndex index = defaultIndex;
+    if (index == null) {
+      synchronized (FormattedStateIndex.class) {
+        if (defaultIndex == null) {
+          defaultIndex =
+              new FormattedStateIndex(
+                  Places.getCacheSubfile("google-java-format/formatted-state.idx"));
+        }
+        index = defaultIndex;
+      }
+    }
+    return index;
+  }
+
+  /**
+   * Returns whether the file was formatted, if its modification time and the options are those it
+   * was last checked with.
+   *
+   * @return the recorded state, or {@code null} if the file has to be read
+   */
+  public Boolean isFormatted(String path, long modificationTime, long optionsFingerprint) {
+    Entry entry = getEntry(path);
+    return entry != null
+            && entry.modificationTime == modificationTime
+            && modificationTime != UNKNOWN_MODIFICATION_TIME
+            && entry.optionsFingerprint == optionsFingerprint
+        ? entry.formatted
+        : null;
+  }
+
+  /**
+   * Returns whether the file was formatted, if its content and the options are those it was last
+   * checked with. A match updates the recorded modification time.
+   *
+   * @return the recorded state, or {@code null} if the file has to be formatted
+   */
+  public Boolean isFormatted(
+      String path, long modificationTime, CharSequence text, long optionsFingerprint) {
+    Entry entry = getEntry(path);
+    if (entry == null
+        || entry.length != text.length()
+        || entry.optionsFingerprint != optionsFingerprint
+        || entry.hash != FormattedContentCache.hash(text)) {
+      return null;
+    }
+    if (entry.modificationTime != modificationTime) {
+      put(
+          path,
+          new Entry(
+              modificationTime, entry.hash, entry.length, optionsFingerprint, entry.formatted));
+    }
+    return entry.formatted;
+  }
+
+  /** Records whether the file with the given modification time and content is formatted. */
+  public void record(
+      String path,
+      long modificationTime,
+      CharSequence text,
+      long optionsFingerprint,
+      boolean formatted) {
+    getEntry(path);
+    put(
+        path,
+        new Entry(
+            modificationTime,
+            FormattedContentCache.hash(text),
+            text.length(),
+            optionsFingerprint,
+            formatted));
+  }
+
+  public void remove(String path) {
+    load();
+    if (entries.remove(path) != null) {
+      flushTask.schedule(FLUSH_DELAY_MILLIS);
+    }
+  }
+
+  public int size() {
+    load();
+    return entries.size();
+  }
+
+  /** Writes the index to disk now, rather than waiting for the scheduled write. */
+  public synchronized void flush() {
+    if (!loaded) {
+      return;
+    }
+    try {
+      File parent = storage.getParentFile();
+      if (parent != null) {
+        parent.mkdirs();
+      }
+      File temporary = new File(storage.getPath() + ".tmp");
+      try (DataOutputStream out =
+          new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temporary)))) {
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        // Entries are still being recorded, so the count has to be that of a snapshot
+        Map<String, Entry> snapshot = new HashMap<>(entries);
+        out.writeInt(snapshot.size());
+        for (Map.Entry<String, Entry> mapEntry : snapshot.entrySet()) {
+          Entry entry = mapEntry.getValue();
+          out.writeUTF(mapEntry.getKey());
+          out.writeLong(entry.modificationTime);
+          out.writeLong(entry.hash);
+          out.writeInt(entry.length);
+          out.writeLong(entry.optionsFingerprint);
+          out.writeBoolean(entry.formatted);
+        }
+      }
+      Files.move(temporary.toPath(), storage.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    } catch (IOException ex) {
+      LOG.log(Level.INFO, "Unable to write " + storage, ex);
+    }
+  }
+
+  private Entry getEntry(String path) {
+    load();
+    return entries.get(path);
+  }
+
+  private void put(String path, Entry entry) {
+    entries.put(path, entry);
+    flushTask.schedule(FLUSH_DELAY_MILLIS);
+  }
+
+  private void load() {
+    if (loaded) {
+      return;
+    }
+    synchronized (this) {
+      if (loaded) {
+        return;
+      }
+      if (storage.isFile()) {
+        try (DataInputStream in =
+            new DataInputStream(new BufferedInputStream(new FileInputStream(storage)))) {
+          if (in.readInt() == MAGIC && in.readInt() == VERSION) {
+            for (int i = in.readInt(); i > 0; i--) {
+              String path = in.readUTF();
+              entries.put(
+                  path,
+                  new Entry(
+                      in.readLong(), in.readLong(), in.readInt(), in.readLong(), in.readBoolean()));
+            }
+          }
+        } catch (IOException ex) {
+          // A damaged index is discarded, so every file is checked again
+          LOG.log(Level.FINE, "Unable to read " + storage, ex);
+          entries.clear();
+        }
+      }
+      loaded = true;
+    }
+  }
+
+  private static final class Entry {
+
+    private final long modificationTime;
+    private final long hash;
+    private final int length;
+    private final long optionsFingerprint;
+    private final boolean formatted;
+
+    Entry(
+        long modificationTime, long hash, int length, long optionsFingerprint, boolean formatted) {
+      this.modificationTime = modificationTime;
+      this.hash = hash;
+      this.length = length;
+      this.optionsFingerprint = optionsFingerprint;
+      this.formatted = formatted;
+    }
+  }
+}
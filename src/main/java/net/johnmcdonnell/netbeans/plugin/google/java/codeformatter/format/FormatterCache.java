@@ -0,0 +1,103 @@
+/*
+ * Copyright 2019 John McDonnell.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.johnmcdonnell.netbeans.plugin.google.java.codeformatter.format;
+
+import com.google.common.collect.Range;
+import com.google.googlejavaformat.java.Formatter;
+import com.google.googlejavaformat.java.FormatterException;
+import com.google.googlejavaformat.java.ImportOrderer;
+import com.google.googlejavaformat.java.JavaFormatterOptions;
+import com.google.googlejavaformat.java.RemoveUnusedImports;
+import java.util.Collection;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Holds the {@link Formatter} instances shared by every project and document, keyed by the {@link
+ * FormatterOptions} they were built for. A {@link Formatter} is immutable once built, so a single
+ * instance per set of options can safely be used from any thread.
+ *
+ * @author John McDonnell
+ */
+public final class FormatterCache {
+
+  private static final Logger LOG = Logger.getLogger(FormatterCache.class.getName());
+
+  private static final String WARM_UP_SOURCE =
+      "package warmup;\n"
+          + "import java.util.List;\n"
+          + "import java.util.ArrayList;\n"
+          + "class WarmUp { List<String> values = new ArrayList<>();\n"
+          + "  void run() { for (String value : values) { if (value.isEmpty()) { continue; } } } }\n";
+
+  private static final Map<FormatterOptions, Formatter> FORMATTERS = new ConcurrentHashMap<>();
+
+  private FormatterCache() {}
+
+  public static Formatter getFormatter(FormatterOptions options) {
+    return FORMATTERS.computeIfAbsent(
+        Objects.requireNonNull(options),
+        o -> new Formatter(JavaFormatterOptions.builder().style(o.getStyle()).build()));
+  }
+
+  /**
+   * Formats the given character ranges of the text, along with whichever import passes the options
+   * ask for, in this JVM.
+   *
+   * @param text the text to format
+   * @param ranges the character ranges to format, or {@code null} to format the whole text
+   */
+  public static String format(
+      FormatterOptions options, String text, Collection<Range<Integer>> ranges)
+      throws FormatterException {
+    Formatter formatter = getFormatter(options);
+    if (ranges == null) {
+      String imports = options.isSortImports() ? ImportOrderer.reorderImports(text) : text;
+      if (options.isRemoveUnusedImports()) {
+        imports = RemoveUnusedImports.removeUnusedImports(imports);
+      }
+      return formatter.formatSource(imports);
+    }
+    return fixImports(options, formatter.formatSource(text, ranges));
+  }
+
+  /**
+   * Runs only the import passes the options ask for over the text, without formatting the rest of
+   * it.
+   */
+  public static String fixImports(FormatterOptions options, String text) throws FormatterException {
+    String fixed = text;
+    if (options.isRemoveUnusedImports()) {
+      fixed = RemoveUnusedImports.removeUnusedImports(fixed);
+    }
+    return options.isSortImports() ? ImportOrderer.reorderImports(fixed) : fixed;
+  }
+
+  /**
+   * Formats a small snippet so that the javac and formatter classes are loaded and compiled before
+   * the first real save needs them.
+   */
+  public static void warmUp(FormatterOptions options) {
+    try {
+      format(options, WARM_UP_SOURCE, null);
+    } catch (FormatterException | RuntimeException ex) {
+      LOG.log(Level.FINE, "Formatter warm up failed", ex);
+    }
+  }
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright 2019 John McDonnell.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.johnmcdonnell.netbeans.plugin.google.java.codeformatter.format;
+
+import com.google.googlejavaformat.java.JavaFormatterOptions.Style;
+import java.util.Objects;
+
+/**
+ * The options a project formats its code with: the style, and which of the import passes to run.
+ *
+ * @author John McDonnell
+ */
+public final class FormatterOptions {
+
+  /** Google style, with unused imports removed and imports sorted. */
+  public static final FormatterOptions DEFAULT = new FormatterOptions(Style.GOOGLE, true, true);
+
+  private final Style style;
+  private final boolean removeUnusedImports;
+  private final boolean sortImports;
+
+  public FormatterOptions(Style style, boolean removeUnusedImports, boolean sortImports) {
+    this.style = Objects.requireNonNull(style);
+    this.removeUnusedImports = removeUnusedImports;
+    this.sortImports = sortImports;
+  }
+
+  public Style getStyle() {
+    return style;
+  }
+
+  public boolean isRemoveUnusedImports() {
+    return removeUnusedImports;
+  }
+
+  public boolean isSortImports() {
+    return sortImports;
+  }
+
+  /**
+   * Returns a value identifying the output produced with these options, used to key anything cached
+   * from the formatter's results.
+   */
+  public long fingerprint() {
+    return (style.ordinal() + 1) | (removeUnusedImports ? 0 : 1 << 8) | (sortImports ? 0 : 1 << 9);
+  }
+
+  @Override
+  public boolean equals(Object obj) {
+    if (!(obj instanceof FormatterOptions)) {
+      return false;
+    }
+    FormatterOptions other = (FormatterOptions) obj;
+    return style == other.style
+        && removeUnusedImports == other.removeUnusedImports
+        && sortImports == other.sortImports;
+  }
+
+  @Override
+  public int hashCode() {
+    return Long.hashCode(fingerprint());
+  }
+
+  @Override
+  public String toString() {
+    return style
+        + (removeUnusedImports ? "" : ", keeping unused imports")
+        + (sortImports ? "" : ", leaving imports unsorted");
+  }
+}
@@ -15,18 +15,33 @@
  */
 package net.johnmcdonnell.netbeans.plugin.google.java.codeformatter.format;
 
-import static java.util.Comparator.comparing;
-
-import com.github.difflib.DiffUtils;
 import com.github.difflib.algorithm.DiffException;
 import com.github.difflib.patch.AbstractDelta;
-import com.google.googlejavaformat.java.Formatter;
+import com.google.common.collect.Range;
+import com.google.common.collect.RangeSet;
+import com.google.common.base.Throwables;
 import com.google.googlejavaformat.java.FormatterException;
-import com.google.googlejavaformat.java.JavaFormatterOptions;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 import javax.swing.text.BadLocationException;
+import javax.swing.text.Document;
 import javax.swing.text.StyledDocument;
-import org.netbeans.api.editor.guards.GuardedSectionManager;
+import net.johnmcdonnell.netbeans.plugin.google.java.codeformatter.daemon.FormatterDaemonClient;
+import net.johnmcdonnell.netbeans.plugin.google.java.codeformatter.metrics.FormatMetrics;
+import net.johnmcdonnell.netbeans.plugin.google.java.codeformatter.metrics.FormatTrace;
+import net.johnmcdonnell.netbeans.plugin.google.java.codeformatter.metrics.FormatTrace.Phase;
 import org.openide.text.NbDocument;
 import org.openide.util.Exceptions;
 
@@ -35,35 +50,441 @@ import org.openide.util.Exceptions;
  */
 public class GoogleCodeFormatter {
 
-    public void format(StyledDocument document) {
-        Formatter formatter = new Formatter(JavaFormatterOptions.defaultOptions());
+    private static final Logger LOG = Logger.getLogger(GoogleCodeFormatter.class.getName());
+
+    /**
+     * The system property that sets the time budget of a format for the editor, in process or in
+     * the formatter daemon, in milliseconds, see {@link #withEditorTimeout()}.
+     */
+    public static final String TIMEOUT_PROPERTY
+            = "net.johnmcdonnell.netbeans.plugin.google.java.codeformatter.formatTimeoutMillis";
+
+    private static final long EDITOR_TIMEOUT_MILLIS = Long.getLong(TIMEOUT_PROPERTY, 5_000);
+
+    private static final int TIMED_THREADS = Math.max(2, Runtime.getRuntime().availableProcessors());
+
+    /**
+     * Runs the formats that have a time budget, on a bounded number of threads. The formatter does
+     * not check for interruption, so a format past its budget runs on until it finishes and holds a
+     * thread meanwhile; the {@link FormatCircuitBreaker} keeps a document from starting another one
+     * until then. When every thread is held, further formats wait in the queue and time out there.
+     */
+    private static final ThreadPoolExecutor TIMED_EXECUTOR = createTimedExecutor();
+
+    private final FormattedContentCache contentCache;
+    private final FormatterDaemonClient daemon;
+    private final FormatterOptions options;
+    private final long timeoutMillis;
+
+    /**
+     * Creates a formatter that formats in the formatter daemon if it has been enabled with the
+     * {@value FormatterDaemonClient#ENABLED_PROPERTY} system property, and in process otherwise.
+     */
+    public GoogleCodeFormatter() {
+        this(FormattedContentCache.getDefault(),
+                FormatterDaemonClient.isEnabled() ? FormatterDaemonClient.getDefault() : null);
+    }
+
+    public GoogleCodeFormatter(FormattedContentCache contentCache) {
+        this(contentCache, null);
+    }
+
+    /**
+     * Creates a formatter whose formats take as long as they need, see {@link #withEditorTimeout()}.
+     *
+     * @param contentCache the hashes of texts known to be formatted
+     * @param daemon the daemon to format in, falling back to formatting in process when it is
+     * unavailable, or {@code null} to always format in process
+     */
+    public GoogleCodeFormatter(FormattedContentCache contentCache, FormatterDaemonClient daemon) {
+        this(contentCache, daemon, FormatterOptions.DEFAULT, 0);
+    }
+
+    private GoogleCodeFormatter(FormattedContentCache contentCache, FormatterDaemonClient daemon,
+            FormatterOptions options, long timeoutMillis) {
+        this.contentCache = Objects.requireNonNull(contentCache);
+        this.daemon = daemon;
+        this.options = Objects.requireNonNull(options);
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    /**
+     * Returns a formatter that formats with the given options, sharing this formatter's cache and
+     * daemon.
+     */
+    public GoogleCodeFormatter withOptions(FormatterOptions options) {
+        return this.options.equals(options)
+                ? this : new GoogleCodeFormatter(contentCache, daemon, options, timeoutMillis);
+    }
+
+    /**
+     * Returns a formatter that gives up on formats that take longer than the given time, sharing
+     * this formatter's cache and daemon.
+     *
+     * @param timeoutMillis the time budget, or 0 to let formats take as long as they need
+     */
+    public GoogleCodeFormatter withTimeout(long timeoutMillis) {
+        return this.timeoutMillis == timeoutMillis
+                ? this : new GoogleCodeFormatter(contentCache, daemon, options, timeoutMillis);
+    }
+
+    /**
+     * Returns a formatter with the time budget for formats the user waits on in the editor, set by
+     * the {@value #TIMEOUT_PROPERTY} system property. Bulk and command line formats have no budget,
+     * and run on the calling thread.
+     */
+    public GoogleCodeFormatter withEditorTimeout() {
+        return withTimeout(EDITOR_TIMEOUT_MILLIS);
+    }
+
+    public FormatterOptions getOptions() {
+        return options;
+    }
+
+    /**
+     * Formats the whole document, apart from the text of any guarded sections.
+     *
+     * @return whether the document was changed
+     */
+    public boolean format(StyledDocument document) {
+        return format(document, new FormatTrace());
+    }
+
+    /**
+     * Formats the whole document, recording the time taken by each phase in the trace.
+     *
+     * @return whether the document was changed
+     */
+    public boolean format(StyledDocument document, FormatTrace trace) {
         try {
-            final String existingText = document.getText(0, document.getLength());
-
-            final String formatSourceAndFixImports = formatter.formatSourceAndFixImports(existingText);
-
-            if (formatSourceAndFixImports != null && !formatSourceAndFixImports.equals(existingText)) {
-                try {
-                    List<AbstractDelta<String>> deltas
-                            = sortDeltas(DiffUtils.diff(existingText, formatSourceAndFixImports, null).getDeltas());
-
-                    GuardedSectionManager guards = GuardedSectionManager.getInstance(document);
-                    final boolean hasGuardedSections = guards != null;
-                    if (!hasGuardedSections) {
-                        NbDocument.runAtomicAsUser(
-                                document, new DocumentDeltaUpdater(deltas, document));
-                    }
-                } catch (DiffException ex) {
-                    Exceptions.printStackTrace(ex);
-                }
+            return formatDocument(document, trace);
+        } catch (FormatterException ex) {
+            LOG.log(Level.INFO, "Document left unformatted: {0}", ex.getMessage());
+            return false;
+        } catch (DiffException | BadLocationException ex) {
+            Exceptions.printStackTrace(ex);
+            return false;
+        }
+    }
+
+    /**
+     * Formats the whole document like {@link #format(StyledDocument, FormatTrace)}, but leaves a
+     * failure to the caller rather than logging it.
+     *
+     * @return whether the document was changed
+     * @throws FormatterException if the document cannot be formatted
+     */
+    public boolean formatDocument(StyledDocument document, FormatTrace trace)
+            throws FormatterException, DiffException, BadLocationException {
+        final String existingText = readText(document, trace);
+        final RangeSet<Integer> guarded = GuardedRanges.get(document);
+        final Collection<Range<Integer>> ranges
+                = guarded == null ? null : GuardedRanges.exclude(null, guarded, existingText.length());
+
+        return applyDeltas(document, computeDeltas(document, existingText, ranges, trace), trace);
+    }
+
+    /**
+     * Formats only the lines edited since the document was last formatted, falling back to the
+     * whole document when the edits are not known.
+     */
+    public void formatChangedLines(StyledDocument document) {
+        formatChangedLines(document, new FormatTrace());
+    }
+
+    /**
+     * Formats only the lines edited since the document was last formatted, recording the time
+     * taken by each phase in the trace.
+     */
+    public void formatChangedLines(StyledDocument document, FormatTrace trace) {
+        DirtyRegionTracker tracker = DirtyRegionTracker.get(document);
+        try {
+            final String existingText = readText(document, trace);
+
+            final RangeSet<Integer> guarded = GuardedRanges.get(document);
+            Collection<Range<Integer>> ranges = tracker.getChangedRanges(existingText);
+            if (guarded != null) {
+                ranges = GuardedRanges.exclude(ranges, guarded, existingText.length());
             }
-        } catch (FormatterException | BadLocationException ex) {
+
+            applyDeltas(document, computeDeltas(document, existingText, ranges, trace), trace);
+            tracker.reset();
+        } catch (FormatterException ex) {
+            LOG.log(Level.INFO, "Document left unformatted: {0}", ex.getMessage());
+        } catch (DiffException | BadLocationException ex) {
             Exceptions.printStackTrace(ex);
         }
     }
 
-    private List<AbstractDelta<String>> sortDeltas(List<AbstractDelta<String>> deltas) {
-        deltas.sort(comparing(d -> d.getSource().getPosition()));
+    /**
+     * Formats the whole of the given text, along with its imports as far as the options ask for.
+     *
+     * @return the formatted text, which is the same instance as the given text if it was already
+     * formatted
+     */
+    public String formatText(String existingText) throws FormatterException {
+        return formatText(existingText, null);
+    }
+
+    private String formatText(String existingText, FormatCircuitBreaker breaker) throws FormatterException {
+        final long optionsFingerprint = options.fingerprint();
+        if (contentCache.isFormatted(existingText, optionsFingerprint)) {
+            return existingText;
+        }
+        final String formatSourceAndFixImports = formatSource(existingText, null, breaker);
+        contentCache.markFormatted(formatSourceAndFixImports, optionsFingerprint);
+        return formatSourceAndFixImports.equals(existingText) ? existingText : formatSourceAndFixImports;
+    }
+
+    /**
+     * Formats the given text and returns the deltas needed to turn it into the formatted text.
+     * This does not touch any document, so it is safe to call from a background thread.
+     */
+    public List<AbstractDelta<String>> computeDeltas(String existingText) throws FormatterException, DiffException {
+        return computeDeltas(existingText, null);
+    }
+
+    /**
+     * Formats the given character ranges of the text, along with its imports, and returns the
+     * deltas needed to turn it into the formatted text.
+     *
+     * @param existingText the text to format
+     * @param ranges the character ranges to format, or {@code null} to format the whole text
+     */
+    public List<AbstractDelta<String>> computeDeltas(String existingText, Collection<Range<Integer>> ranges)
+            throws FormatterException, DiffException {
+        return computeDeltas(existingText, ranges, new FormatTrace());
+    }
+
+    /**
+     * Formats the given character ranges of the text, along with its imports, and returns the
+     * deltas needed to turn it into the formatted text, recording the time taken in the trace.
+     * When the ranges lie entirely within the package and import declarations, only the import
+     * passes are run and the result is a single delta confined to those declarations.
+     *
+     * @param existingText the text to format
+     * @param ranges the character ranges to format, or {@code null} to format the whole text
+     * @param trace records the time spent formatting and diffing
+     */
+    public List<AbstractDelta<String>> computeDeltas(String existingText, Collection<Range<Integer>> ranges,
+            FormatTrace trace) throws FormatterException, DiffException {
+        return computeDeltas(existingText, ranges, trace, null);
+    }
+
+    private List<AbstractDelta<String>> computeDeltas(String existingText, Collection<Range<Integer>> ranges,
+            FormatTrace trace, FormatCircuitBreaker breaker) throws FormatterException, DiffException {
+        trace.setDocumentLength(existingText.length());
+        if (ranges != null && ranges.isEmpty()) {
+            return Collections.emptyList();
+        }
+
+        long start = System.nanoTime();
+        if (ranges != null && (options.isRemoveUnusedImports() || options.isSortImports())) {
+            final int headerEnd = ImportBlock.end(existingText);
+            if (ImportBlock.contains(headerEnd, ranges)) {
+                List<AbstractDelta<String>> deltas = ImportBlock.fixImports(options, existingText, headerEnd);
+                trace.addSince(Phase.FORMAT, start);
+                if (deltas != null) {
+                    trace.setDeltaCount(deltas.size());
+                    return deltas;
+                }
+                start = System.nanoTime();
+            }
+        }
+
+        final String formatSourceAndFixImports;
+        if (ranges == null) {
+            formatSourceAndFixImports = formatText(existingText, breaker);
+        } else if (contentCache.isFormatted(existingText, options.fingerprint())) {
+            formatSourceAndFixImports = existingText;
+        } else {
+            formatSourceAndFixImports = formatSource(existingText, ranges, breaker);
+        }
+        trace.addSince(Phase.FORMAT, start);
+
+        if (formatSourceAndFixImports == null || formatSourceAndFixImports.equals(existingText)) {
+            return Collections.emptyList();
+        }
+        start = System.nanoTime();
+        List<AbstractDelta<String>> deltas = LineDiff.diff(existingText, formatSourceAndFixImports);
+        trace.addSince(Phase.DIFF, start);
+        trace.setDeltaCount(deltas.size());
         return deltas;
     }
+
+    /**
+     * Computes the deltas that format text read from the document, unless formatting the document
+     * has failed too often lately or is still running past its time budget, see {@link
+     * FormatCircuitBreaker}.
+     *
+     * @param document the document the text was read from
+     * @param existingText the text to format
+     * @param ranges the character ranges to format, or {@code null} to format the whole text
+     * @param trace records the time spent formatting and diffing
+     * @throws FormatterException if the text cannot be formatted in time, or formatting it is being
+     * skipped
+     */
+    public List<AbstractDelta<String>> computeDeltas(Document document, String existingText,
+            Collection<Range<Integer>> ranges, FormatTrace trace) throws FormatterException, DiffException {
+        final FormatCircuitBreaker breaker = FormatCircuitBreaker.get(document);
+        if (!breaker.allowsFormat()) {
+            FormatMetrics.getDefault().recordCircuitOpen();
+            throw new FormatterException(
+                    "Skipped after formatting the document failed repeatedly or ran past its time budget");
+        }
+        try {
+            List<AbstractDelta<String>> deltas = computeDeltas(existingText, ranges, trace, breaker);
+            breaker.recordSuccess();
+            return deltas;
+        } catch (FormatterException ex) {
+            breaker.recordFailure();
+            throw ex;
+        }
+    }
+
+    /**
+     * Applies deltas computed by {@link #computeDeltas(String)} to the document as a single user
+     * edit. Edits that would change the text of a guarded section are skipped.
+     *
+     * @return whether the deltas were applied
+     */
+    public boolean applyDeltas(StyledDocument document, List<AbstractDelta<String>> deltas) throws BadLocationException {
+        return applyDeltas(document, deltas, new FormatTrace());
+    }
+
+    /**
+     * Applies deltas computed by {@link #computeDeltas(String)} to the document as a single user
+     * edit, recording the time taken and the edits made in the trace. Edits that would change the
+     * text of a guarded section are skipped.
+     *
+     * @return whether the deltas were applied
+     * @throws BadLocationException if the deltas do not fit the document, which may then have been
+     * partly changed
+     */
+    public boolean applyDeltas(StyledDocument document, List<AbstractDelta<String>> deltas, FormatTrace trace)
+            throws BadLocationException {
+        if (deltas.isEmpty()) {
+            return false;
+        }
+        long start = System.nanoTime();
+        final DocumentDeltaUpdater updater
+                = new DocumentDeltaUpdater(deltas, document, trace, GuardedRanges.get(document));
+        final BadLocationException[] failure = new BadLocationException[1];
+        NbDocument.runAtomicAsUser(document, () -> {
+            try {
+                updater.apply();
+            } catch (BadLocationException ex) {
+                failure[0] = ex;
+            }
+        });
+        trace.addSince(Phase.APPLY, start);
+        if (failure[0] != null) {
+            throw failure[0];
+        }
+        return true;
+    }
+
+    /**
+     * @param breaker the breaker of the document the text was read from, which is told of a format
+     * running on past its time budget, or {@code null}
+     */
+    private String formatSource(String existingText, Collection<Range<Integer>> ranges,
+            FormatCircuitBreaker breaker) throws FormatterException {
+        if (daemon != null) {
+            try {
+                return daemon.format(options, existingText, ranges, timeoutMillis);
+            } catch (IOException ex) {
+                LOG.log(Level.FINE, "Formatter daemon unavailable, formatting in process", ex);
+            } catch (TimeoutException ex) {
+                FormatMetrics.getDefault().recordTimedOut(existingText.length(), timeoutMillis);
+                throw new FormatterException("Formatting took longer than " + timeoutMillis + " ms");
+            }
+        }
+        if (timeoutMillis <= 0) {
+            return FormatterCache.format(options, existingText, ranges);
+        }
+        return formatWithin(existingText, ranges, breaker);
+    }
+
+    private String formatWithin(String existingText, Collection<Range<Integer>> ranges,
+            FormatCircuitBreaker breaker) throws FormatterException {
+        TimedFormat format = new TimedFormat(options, existingText, ranges);
+        FutureTask<String> result = new FutureTask<>(format);
+        TIMED_EXECUTOR.execute(result);
+        try {
+            return result.get(timeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (ExecutionException ex) {
+            Throwables.throwIfInstanceOf(ex.getCause(), FormatterException.class);
+            Throwables.throwIfUnchecked(ex.getCause());
+            throw new IllegalStateException(ex.getCause());
+        } catch (TimeoutException ex) {
+            abandon(result, format, breaker);
+            FormatMetrics.getDefault().recordTimedOut(existingText.length(), timeoutMillis);
+            throw new FormatterException("Formatting took longer than " + timeoutMillis + " ms");
+        } catch (InterruptedException ex) {
+            abandon(result, format, breaker);
+            Thread.currentThread().interrupt();
+            throw new FormatterException("Interrupted while formatting");
+        }
+    }
+
+    /**
+     * Cancels a timed format, taking it off the queue if it has not started. One that has started
+     * runs on regardless, and the document's breaker holds off its formats until it has finished.
+     */
+    private static void abandon(FutureTask<String> result, TimedFormat format, FormatCircuitBreaker breaker) {
+        result.cancel(true);
+        TIMED_EXECUTOR.remove(result);
+        if (breaker != null && format.isRunning()) {
+            breaker.recordRunaway(format::isRunning);
+        }
+    }
+
+    private static ThreadPoolExecutor createTimedExecutor() {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(TIMED_THREADS, TIMED_THREADS, 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(), runnable -> {
+                    Thread thread = new Thread(runnable, GoogleCodeFormatter.class.getName() + " timed format");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    private String readText(StyledDocument document, FormatTrace trace) throws BadLocationException {
+        long start = System.nanoTime();
+        final String existingText = document.getText(0, document.getLength());
+        trace.addSince(Phase.READ, start);
+        return existingText;
+    }
+
+    /** A format with a time budget, which knows whether it is still running once abandoned. */
+    private static final class TimedFormat implements Callable<String> {
+
+        private final FormatterOptions options;
+        private final String text;
+        private final Collection<Range<Integer>> ranges;
+        private volatile boolean started;
+        private volatile boolean finished;
+
+        TimedFormat(FormatterOptions options, String text, Collection<Range<Integer>> ranges) {
+            this.options = options;
+            this.text = text;
+            this.ranges = ranges;
+        }
+
+        @Override
+        public String call() throws FormatterException {
+            started = true;
+            try {
+                return FormatterCache.format(options, text, ranges);
+            } finally {
+                finished = true;
+            }
+        }
+
+        boolean isRunning() {
+            return started && !finished;
+        }
+    }
 }
@@ -0,0 +1,118 @@
+/*
+ * Copyright 2019 John McDonnell.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.johnmcdonnell.netbeans.plugin.google.java.codeformatter.format;
+
+import com.google.common.collect.Range;
+import com.google.common.collect.RangeSet;
+import com.google.common.collect.TreeRangeSet;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import javax.swing.text.StyledDocument;
+import org.netbeans.api.editor.guards.GuardedSection;
+import org.netbeans.api.editor.guards.GuardedSectionManager;
+import org.netbeans.api.editor.guards.InteriorSection;
+
+/**
+ * The character ranges of a document that are protected by guarded sections, such as the code
+ * generated for GUI forms, and the means to keep formatting out of them.
+ *
+ * @author John McDonnell
+ */
+public final class GuardedRanges {
+
+  private GuardedRanges() {}
+
+  /**
+   * Returns the guarded ranges of the document. The body of an interior section is editable, so
+   * only its header and footer are guarded. Section ends are treated as inclusive, so the ranges
+   * may cover one character more than is guarded, never less.
+   *
+   * @return the guarded ranges, or {@code null} if the document has no guarded sections
+   */
+  public static RangeSet<Integer> get(StyledDocument document) {
+    GuardedSectionManager guards = GuardedSectionManager.getInstance(document);
+    if (guards == null) {
+      return null;
+    }
+    RangeSet<Integer> guarded = TreeRangeSet.create();
+    int length = document.getLength();
+    for (GuardedSection section : guards.getGuardedSections()) {
+      int start = section.getStartPosition().getOffset();
+      int end = Math.min(section.getEndPosition().getOffset() + 1, length);
+      if (section instanceof InteriorSection) {
+        InteriorSection interior = (InteriorSection) section;
+        add(guarded, start, interior.getBodyStartPosition().getOffset());
+        add(guarded, interior.getBodyEndPosition().getOffset(), end);
+      } else {
+        add(guarded, start, end);
+      }
+    }
+    return guarded.isEmpty() ? null : guarded;
+  }
+
+  /**
+   * Removes the guarded ranges from the ranges to format.
+   *
+   * @param ranges the ranges to format, or {@code null} for the whole text
+   * @param guarded the guarded ranges
+   * @param length the length of the text
+   * @return the ranges outside the guarded ranges
+   */
+  public static Collection<Range<Integer>> exclude(
+      Collection<Range<Integer>> ranges, RangeSet<Integer> guarded, int length) {
+    RangeSet<Integer> formattable = TreeRangeSet.create();
+    if (ranges == null) {
+      formattable.add(Range.closedOpen(0, length));
+    } else {
+      ranges.forEach(formattable::add);
+    }
+    formattable.removeAll(guarded);
+    return new ArrayList<>(formattable.asRanges());
+  }
+
+  /**
+   * Returns whether the replacement would change guarded text. Removals may not overlap a guarded
+   * range, and insertions may only be made at its edges.
+   */
+  public static boolean touches(TextReplacement replacement, RangeSet<Integer> guarded) {
+    int start = replacement.getOffset();
+    int end = replacement.getEndOffset();
+    if (start == end) {
+      Range<Integer> range = guarded.rangeContaining(start);
+      return range != null && range.lowerEndpoint() < start;
+    }
+    return !guarded.subRangeSet(Range.closedOpen(start, end)).isEmpty();
+  }
+
+  /** Returns the replacements that leave the guarded text alone. */
+  public static List<TextReplacement> filter(
+      List<TextReplacement> replacements, RangeSet<Integer> guarded) {
+    List<TextReplacement> filtered = new ArrayList<>(replacements.size());
+    for (TextReplacement replacement : replacements) {
+      if (!touches(replacement, guarded)) {
+        filtered.add(replacement);
+      }
+    }
+    return filtered;
+  }
+
+  private static void add(RangeSet<Integer> guarded, int start, int end) {
+    if (start < end) {
+      guarded.add(Range.closedOpen(start, end));
+    }
+  }
+}
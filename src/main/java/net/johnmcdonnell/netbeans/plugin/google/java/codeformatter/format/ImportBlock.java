@@ -0,0 +1,125 @@
+/*
+ * Copyright 2019 John McDonnell.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.johnmcdonnell.netbeans.plugin.google.java.codeformatter.format;
+
+import com.github.difflib.patch.AbstractDelta;
+import com.google.common.collect.Range;
+import com.google.googlejavaformat.java.FormatterException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Finds the header of a Java source: the package and import declarations, with the comments and
+ * blank lines between them, up to the end of the last of those declarations.
+ *
+ * @author John McDonnell
+ */
+final class ImportBlock {
+
+  private ImportBlock() {}
+
+  /**
+   * Returns the offset just past the line holding the last package or import declaration of the
+   * header, or 0 if there is none.
+   */
+  static int end(CharSequence text) {
+    int length = text.length();
+    int end = 0;
+    boolean inComment = false;
+    for (int offset = 0; offset < length; ) {
+      int lineEnd = offset;
+      while (lineEnd < length && text.charAt(lineEnd) != '\n') {
+        lineEnd++;
+      }
+      String line = text.subSequence(offset, lineEnd).toString().trim();
+      if (inComment) {
+        inComment = !line.contains("*/");
+      } else if (line.startsWith("/*")) {
+        inComment = !line.contains("*/");
+      } else if (line.startsWith("package ") || line.startsWith("import ")) {
+        end = Math.min(lineEnd + 1, length);
+      } else if (!line.isEmpty() && !line.startsWith("//")) {
+        break;
+      }
+      offset = lineEnd + 1;
+    }
+    return end;
+  }
+
+  /** Returns whether all of the ranges lie within the header, which ends at the given offset. */
+  static boolean contains(int end, Collection<Range<Integer>> ranges) {
+    if (end == 0 || ranges.isEmpty()) {
+      return false;
+    }
+    for (Range<Integer> range : ranges) {
+      if (range.upperEndpoint() > end) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Runs only the import passes the options ask for, and returns a single delta confined to the
+   * header that applies their result. Sorting alone reads just the header, but removing unused
+   * imports has to parse the whole text to find the names it uses.
+   *
+   * @param end the end of the header, as returned by {@link #end(CharSequence)}
+   * @return the delta, which is empty if the imports are already in order, or {@code null} if the
+   *     import passes changed text beyond the header and the whole text must be formatted instead
+   */
+  static List<AbstractDelta<String>> fixImports(FormatterOptions options, String text, int end)
+      throws FormatterException {
+    if (end == 0 || text.charAt(end - 1) != '\n') {
+      return null;
+    }
+    String existingHeader = text.substring(0, end);
+    String header =
+        options.isRemoveUnusedImports()
+            ? fixedHeader(FormatterCache.fixImports(options, text), text, end)
+            : FormatterCache.fixImports(options, existingHeader);
+    if (header == null || !(header.isEmpty() || header.endsWith("\n"))) {
+      return null;
+    }
+    if (header.equals(existingHeader)) {
+      return Collections.emptyList();
+    }
+    return LineDiff.span(lines(existingHeader), lines(header));
+  }
+
+  /**
+   * Returns the header of the fixed text, or {@code null} if the text after the header no longer
+   * matches the text after the existing header.
+   */
+  private static String fixedHeader(String fixed, String text, int end) {
+    int bodyLength = text.length() - end;
+    if (fixed.length() < bodyLength) {
+      return null;
+    }
+    int headerLength = fixed.length() - bodyLength;
+    return fixed.regionMatches(headerLength, text, end, bodyLength)
+        ? fixed.substring(0, headerLength)
+        : null;
+  }
+
+  /** Splits text that ends with a line break into its lines. */
+  private static List<String> lines(String text) {
+    List<String> lines = Arrays.asList(text.split("\n", -1));
+    return lines.subList(0, lines.size() - 1);
+  }
+}
@@ -0,0 +1,243 @@
+/*
+ * Copyright 2019 John McDonnell.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.johnmcdonnell.netbeans.plugin.google.java.codeformatter.format;
+
+import com.github.difflib.DiffUtils;
+import com.github.difflib.algorithm.DiffException;
+import com.github.difflib.patch.AbstractDelta;
+import com.github.difflib.patch.ChangeDelta;
+import com.github.difflib.patch.Chunk;
+import com.github.difflib.patch.DeleteDelta;
+import com.github.difflib.patch.InsertDelta;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A line diff for large texts. Lines common to the start and end of both texts, and lines that
+ * occur exactly once in each, are taken as matching without diffing them, in the manner of a
+ * patience diff. Only the windows between those anchors are diffed with Myers' algorithm, and a
+ * window too large for that is replaced as a whole.
+ *
+ * <p>The deltas come in ascending order, like those of {@link DiffUtils#diff(String, String,
+ * com.github.difflib.algorithm.DiffAlgorithmListener)}. Unlike those, the texts are split at every
+ * line feed, so that a final line feed and trailing blank lines are lines of their own and the
+ * deltas reproduce the revised text exactly.
+ *
+ * @author John McDonnell
+ */
+public final class LineDiff {
+
+  /** Windows with more lines than this on both sides together are replaced without diffing. */
+  static final int MAX_MYERS_LINES = 4000;
+
+  /** Anchoring stops at this depth, after which windows are diffed as they are. */
+  private static final int MAX_DEPTH = 32;
+
+  private final LineTable original;
+  private final LineTable revised;
+  private final List<AbstractDelta<String>> deltas = new ArrayList<>();
+
+  private LineDiff(LineTable original, LineTable revised) {
+    this.original = original;
+    this.revised = revised;
+  }
+
+  /** Returns the line deltas that turn the original text into the revised text. */
+  public static List<AbstractDelta<String>> diff(CharSequence original, CharSequence revised)
+      throws DiffException {
+    return diff(LineTable.split(original), LineTable.split(revised));
+  }
+
+  /** Returns the deltas that turn the original lines into the revised lines. */
+  public static List<AbstractDelta<String>> diff(List<String> original, List<String> revised)
+      throws DiffException {
+    return diff(LineTable.of(original), LineTable.of(revised));
+  }
+
+  /** Returns the deltas that turn the lines of one table into the lines of the other. */
+  static List<AbstractDelta<String>> diff(LineTable original, LineTable revised)
+      throws DiffException {
+    LineDiff lineDiff = new LineDiff(original, revised);
+    lineDiff.diffWindow(0, original.size(), 0, revised.size(), 0);
+    return lineDiff.deltas;
+  }
+
+  /**
+   * Returns a single delta spanning every line that differs between the original and revised lines,
+   * or no delta if they are the same.
+   */
+  public static List<AbstractDelta<String>> span(List<String> original, List<String> revised) {
+    LineDiff lineDiff = new LineDiff(LineTable.of(original), LineTable.of(revised));
+    lineDiff.trimAndReplace(0, original.size(), 0, revised.size());
+    return lineDiff.deltas;
+  }
+
+  private void trimAndReplace(
+      int originalStart, int originalEnd, int revisedStart, int revisedEnd) {
+    while (originalStart < originalEnd
+        && revisedStart < revisedEnd
+        && original.lineEquals(originalStart, revised, revisedStart)) {
+      originalStart++;
+      revisedStart++;
+    }
+    while (originalStart < originalEnd
+        && revisedStart < revisedEnd
+        && original.lineEquals(originalEnd - 1, revised, revisedEnd - 1)) {
+      originalEnd--;
+      revisedEnd--;
+    }
+    replace(originalStart, originalEnd, revisedStart, revisedEnd);
+  }
+
+  private void diffWindow(
+      int originalStart, int originalEnd, int revisedStart, int revisedEnd, int depth)
+      throws DiffException {
+    while (originalStart < originalEnd
+        && revisedStart < revisedEnd
+        && original.lineEquals(originalStart, revised, revisedStart)) {
+      originalStart++;
+      revisedStart++;
+    }
+    while (originalStart < originalEnd
+        && revisedStart < revisedEnd
+        && original.lineEquals(originalEnd - 1, revised, revisedEnd - 1)) {
+      originalEnd--;
+      revisedEnd--;
+    }
+    if (originalStart == originalEnd || revisedStart == revisedEnd) {
+      replace(originalStart, originalEnd, revisedStart, revisedEnd);
+      return;
+    }
+
+    int[] anchors =
+        depth < MAX_DEPTH
+            ? uniqueAnchors(originalStart, originalEnd, revisedStart, revisedEnd)
+            : new int[0];
+    if (anchors.length > 0) {
+      for (int i = 0; i < anchors.length; i += 2) {
+        diffWindow(originalStart, anchors[i], revisedStart, anchors[i + 1], depth + 1);
+        originalStart = anchors[i] + 1;
+        revisedStart = anchors[i + 1] + 1;
+      }
+      diffWindow(originalStart, originalEnd, revisedStart, revisedEnd, depth + 1);
+    } else if (originalEnd - originalStart + revisedEnd - revisedStart <= MAX_MYERS_LINES) {
+      for (AbstractDelta<LineTable.Line> delta :
+          DiffUtils.diff(
+                  original.lines(originalStart, originalEnd),
+                  revised.lines(revisedStart, revisedEnd))
+              .getDeltas()) {
+        int originalPosition = originalStart + delta.getSource().getPosition();
+        int revisedPosition = revisedStart + delta.getTarget().getPosition();
+        replace(
+            originalPosition,
+            originalPosition + delta.getSource().size(),
+            revisedPosition,
+            revisedPosition + delta.getTarget().size());
+      }
+    } else {
+      replace(originalStart, originalEnd, revisedStart, revisedEnd);
+    }
+  }
+
+  /**
+   * Finds the lines that occur exactly once in each side of the window, and returns the longest run
+   * of them that appears in the same order on both sides, as pairs of original and revised line
+   * indexes.
+   */
+  private int[] uniqueAnchors(
+      int originalStart, int originalEnd, int revisedStart, int revisedEnd) {
+    Map<LineTable.Line, int[]> occurrences = new HashMap<>();
+    for (int i = originalStart; i < originalEnd; i++) {
+      int[] occurrence =
+          occurrences.computeIfAbsent(original.line(i), line -> new int[] {0, -1, 0});
+      occurrence[0]++;
+      occurrence[1] = i;
+    }
+    int[] revisedIndexByOriginal = new int[originalEnd - originalStart];
+    Arrays.fill(revisedIndexByOriginal, -1);
+    for (int i = revisedStart; i < revisedEnd; i++) {
+      int[] occurrence = occurrences.get(revised.line(i));
+      if (occurrence != null && occurrence[0] == 1 && occurrence[2]++ == 0) {
+        revisedIndexByOriginal[occurrence[1] - originalStart] = i;
+      } else if (occurrence != null && occurrence[0] == 1) {
+        revisedIndexByOriginal[occurrence[1] - originalStart] = -1;
+      }
+    }
+
+    // Longest increasing subsequence of revised indexes, in original order
+    int count = 0;
+    for (int revisedIndex : revisedIndexByOriginal) {
+      if (revisedIndex >= 0) {
+        count++;
+      }
+    }
+    if (count == 0) {
+      return new int[0];
+    }
+    int[] originalIndexes = new int[count];
+    int[] tails = new int[count];
+    int[] previous = new int[count];
+    int length = 0;
+    int candidate = 0;
+    for (int i = 0; i < revisedIndexByOriginal.length; i++) {
+      int revisedIndex = revisedIndexByOriginal[i];
+      if (revisedIndex < 0) {
+        continue;
+      }
+      originalIndexes[candidate] = i;
+      int low = 0;
+      int high = length;
+      while (low < high) {
+        int middle = (low + high) >>> 1;
+        if (revisedIndexByOriginal[originalIndexes[tails[middle]]] < revisedIndex) {
+          low = middle + 1;
+        } else {
+          high = middle;
+        }
+      }
+      previous[candidate] = low > 0 ? tails[low - 1] : -1;
+      tails[low] = candidate;
+      if (low == length) {
+        length++;
+      }
+      candidate++;
+    }
+
+    int[] anchors = new int[length * 2];
+    for (int i = length - 1, c = tails[length - 1]; i >= 0; i--, c = previous[c]) {
+      anchors[i * 2] = originalStart + originalIndexes[c];
+      anchors[i * 2 + 1] = revisedIndexByOriginal[originalIndexes[c]];
+    }
+    return anchors;
+  }
+
+  private void replace(int originalStart, int originalEnd, int revisedStart, int revisedEnd) {
+    Chunk<String> source = new Chunk<>(originalStart, original.strings(originalStart, originalEnd));
+    Chunk<String> target = new Chunk<>(revisedStart, revised.strings(revisedStart, revisedEnd));
+    if (source.size() == 0 && target.size() == 0) {
+      return;
+    } else if (source.size() == 0) {
+      deltas.add(new InsertDelta<>(source, target));
+    } else if (target.size() == 0) {
+      deltas.add(new DeleteDelta<>(source, target));
+    } else {
+      deltas.add(new ChangeDelta<>(source, target));
+    }
+  }
+}
@@ -0,0 +1,200 @@
+/*
+ * Copyright 2019 John McDonnell.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.johnmcdonnell.netbeans.plugin.google.java.codeformatter.format;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The lines of a text, held as tables of offsets into it rather than as a string per line, so that
+ * diffing a large text does not copy it line by line. A line is only turned into a string when it
+ * ends up in a delta.
+ *
+ * @author John McDonnell
+ */
+final class LineTable {
+
+  private final CharSequence text;
+  private final int[] starts;
+  private final int[] ends;
+  private final int[] hashes;
+
+  private LineTable(CharSequence text, int[] starts, int[] ends) {
+    this.text = text;
+    this.starts = starts;
+    this.ends = ends;
+    this.hashes = new int[starts.length];
+    for (int i = 0; i < starts.length; i++) {
+      int hash = 0;
+      for (int c = starts[i]; c < ends[i]; c++) {
+        hash = 31 * hash + text.charAt(c);
+      }
+      hashes[i] = hash;
+    }
+  }
+
+  /**
+   * Splits the text at every line feed, the way {@code text.toString().split("\n", -1)} does, so
+   * that joining the lines with line feeds gives back the text. A text ending with a line feed ends
+   * with an empty line.
+   */
+  static LineTable split(CharSequence text) {
+    int end = text.length();
+    int count = 1;
+    for (int i = 0; i < end; i++) {
+      if (text.charAt(i) == '\n') {
+        count++;
+      }
+    }
+    int[] starts = new int[count];
+    int[] ends = new int[count];
+    int line = 0;
+    for (int i = 0; i < end; i++) {
+      if (text.charAt(i) == '\n') {
+        ends[line] = i;
+        starts[++line] = i + 1;
+      }
+    }
+    ends[line] = end;
+    return new LineTable(text, starts, ends);
+  }
+
+  /**
+   * Returns a table of the words of {@code text[from, to)}, its runs of non-whitespace characters,
+   * which can be diffed like lines.
+   */
+  static LineTable words(CharSequence text, int from, int to) {
+    int count = 0;
+    for (int i = from; i < to; i++) {
+      if (!Character.isWhitespace(text.charAt(i))
+          && (i == from || Character.isWhitespace(text.charAt(i - 1)))) {
+        count++;
+      }
+    }
+    int[] starts = new int[count];
+    int[] ends = new int[count];
+    int word = 0;
+    for (int i = from; i < to; ) {
+      if (Character.isWhitespace(text.charAt(i))) {
+        i++;
+        continue;
+      }
+      starts[word] = i;
+      while (i < to && !Character.isWhitespace(text.charAt(i))) {
+        i++;
+      }
+      ends[word++] = i;
+    }
+    return new LineTable(text, starts, ends);
+  }
+
+  /** Returns a table of exactly the given lines. */
+  static LineTable of(List<String> lines) {
+    int[] starts = new int[lines.size()];
+    int[] ends = new int[lines.size()];
+    StringBuilder text = new StringBuilder();
+    for (int i = 0; i < lines.size(); i++) {
+      starts[i] = text.length();
+      text.append(lines.get(i));
+      ends[i] = text.length();
+    }
+    return new LineTable(text, starts, ends);
+  }
+
+  int size() {
+    return starts.length;
+  }
+
+  /** Returns the offset of the first character of line {@code i} in the text. */
+  int start(int i) {
+    return starts[i];
+  }
+
+  /** Returns the offset just past the last character of line {@code i} in the text. */
+  int end(int i) {
+    return ends[i];
+  }
+
+  /** Returns whether line {@code i} of this table has the same characters as line {@code j}. */
+  boolean lineEquals(int i, LineTable other, int j) {
+    int length = ends[i] - starts[i];
+    if (hashes[i] != other.hashes[j] || length != other.ends[j] - other.starts[j]) {
+      return false;
+    }
+    for (int c = 0; c < length; c++) {
+      if (text.charAt(starts[i] + c) != other.text.charAt(other.starts[j] + c)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /** Returns the given lines as strings. */
+  List<String> strings(int from, int to) {
+    List<String> strings = new ArrayList<>(to - from);
+    for (int i = from; i < to; i++) {
+      strings.add(text.subSequence(starts[i], ends[i]).toString());
+    }
+    return strings;
+  }
+
+  /** Returns the line at the index, comparable with the lines of other tables. */
+  Line line(int index) {
+    return new Line(this, index);
+  }
+
+  /** Returns the given lines, comparable with the lines of other tables. */
+  List<Line> lines(int from, int to) {
+    return new AbstractList<Line>() {
+      @Override
+      public Line get(int index) {
+        return line(from + index);
+      }
+
+      @Override
+      public int size() {
+        return to - from;
+      }
+    };
+  }
+
+  /** A line of a table, equal to the lines of any table with the same characters. */
+  static final class Line {
+
+    private final LineTable table;
+    private final int index;
+
+    private Line(LineTable table, int index) {
+      this.table = table;
+      this.index = index;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (!(obj instanceof Line)) {
+        return false;
+      }
+      Line other = (Line) obj;
+      return table.lineEquals(index, other.table, other.index);
+    }
+
+    @Override
+    public int hashCode() {
+      return table.hashes[index];
+    }
+  }
+}
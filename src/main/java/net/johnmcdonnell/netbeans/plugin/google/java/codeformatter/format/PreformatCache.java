@@ -0,0 +1,156 @@
+/*
+ * Copyright 2019 John McDonnell.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.johnmcdonnell.netbeans.plugin.google.java.codeformatter.format;
+
+import com.github.difflib.patch.AbstractDelta;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.swing.text.Document;
+
+/**
+ * The deltas that format documents, computed before the saves that need them. An entry is only
+ * handed out for the version of its document and the formatter options it was computed for, and
+ * only once. The cache is bounded by the number of entries and by the characters their deltas hold,
+ * evicting the least recently used entries first.
+ *
+ * @author John McDonnell
+ */
+public final class PreformatCache {
+
+  static final int MAX_ENTRIES = 64;
+
+  /** The most characters held in the deltas of all entries together. */
+  static final long MAX_WEIGHT = 8L * 1024 * 1024;
+
+  /** The weight of an entry on top of its characters, so that entries with no deltas count too. */
+  private static final int ENTRY_WEIGHT = 64;
+
+  private static final PreformatCache DEFAULT = new PreformatCache(MAX_ENTRIES, MAX_WEIGHT);
+
+  private final int maxEntries;
+  private final long maxWeight;
+  private final Map<Document, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+  private final AtomicLong hits = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+  private long weight;
+
+  public PreformatCache(int maxEntries, long maxWeight) {
+    this.maxEntries = maxEntries;
+    this.maxWeight = maxWeight;
+  }
+
+  public static PreformatCache getDefault() {
+    return DEFAULT;
+  }
+
+  /** Keeps the deltas that format the given version of the document with the given options. */
+  public synchronized void put(
+      Document document,
+      long version,
+      long optionsFingerprint,
+      List<AbstractDelta<String>> deltas) {
+    Entry entry = new Entry(version, optionsFingerprint, deltas);
+    remove(document);
+    if (entry.weight > maxWeight) {
+      return;
+    }
+    entries.put(document, entry);
+    weight += entry.weight;
+    Iterator<Entry> eldest = entries.values().iterator();
+    while (entries.size() > maxEntries || weight > maxWeight) {
+      weight -= eldest.next().weight;
+      eldest.remove();
+    }
+  }
+
+  /**
+   * Removes and returns the deltas kept for the document, if they were computed for its current
+   * version and the given options.
+   *
+   * @return the deltas, which are empty if the document was already formatted, or {@code null} if
+   *     the document has to be formatted
+   */
+  public List<AbstractDelta<String>> take(
+      Document document, long version, long optionsFingerprint) {
+    Entry entry;
+    synchronized (this) {
+      entry = entries.remove(document);
+      if (entry != null) {
+        weight -= entry.weight;
+      }
+    }
+    if (entry == null
+        || entry.version != version
+        || entry.optionsFingerprint != optionsFingerprint) {
+      misses.incrementAndGet();
+      return null;
+    }
+    hits.incrementAndGet();
+    return entry.deltas;
+  }
+
+  /** Forgets the deltas kept for the document, once it is no longer open. */
+  public synchronized void remove(Document document) {
+    Entry entry = entries.remove(document);
+    if (entry != null) {
+      weight -= entry.weight;
+    }
+  }
+
+  public synchronized int size() {
+    return entries.size();
+  }
+
+  /** The characters held in the deltas of all entries, along with a fixed weight per entry. */
+  public synchronized long getWeight() {
+    return weight;
+  }
+
+  public long getHitCount() {
+    return hits.get();
+  }
+
+  public long getMissCount() {
+    return misses.get();
+  }
+
+  private static final class Entry {
+
+    private final long version;
+    private final long optionsFingerprint;
+    private final List<AbstractDelta<String>> deltas;
+    private final long weight;
+
+    Entry(long version, long optionsFingerprint, List<AbstractDelta<String>> deltas) {
+      this.version = version;
+      this.optionsFingerprint = optionsFingerprint;
+      this.deltas = deltas;
+      long characters = ENTRY_WEIGHT;
+      for (AbstractDelta<String> delta : deltas) {
+        for (String line : delta.getSource().getLines()) {
+          characters += line.length() + 1;
+        }
+        for (String line : delta.getTarget().getLines()) {
+          characters += line.length() + 1;
+        }
+      }
+      this.weight = characters;
+    }
+  }
+}
@@ -0,0 +1,75 @@
+/*
+ * Copyright 2019 John McDonnell.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.johnmcdonnell.netbeans.plugin.google.java.codeformatter.format;
+
+import java.util.Objects;
+
+/**
+ * Replaces a range of characters of a text with new characters. Offsets are relative to the text
+ * before any replacement has been applied.
+ *
+ * @author John McDonnell
+ */
+public final class TextReplacement {
+
+  private final int offset;
+  private final int length;
+  private final String text;
+
+  public TextReplacement(int offset, int length, String text) {
+    if (offset < 0 || length < 0) {
+      throw new IllegalArgumentException("Invalid range " + offset + "+" + length);
+    }
+    this.offset = offset;
+    this.length = length;
+    this.text = Objects.requireNonNull(text);
+  }
+
+  public int getOffset() {
+    return offset;
+  }
+
+  public int getLength() {
+    return length;
+  }
+
+  public int getEndOffset() {
+    return offset + length;
+  }
+
+  public String getText() {
+    return text;
+  }
+
+  @Override
+  public boolean equals(Object obj) {
+    if (!(obj instanceof TextReplacement)) {
+      return false;
+    }
+    TextReplacement other = (TextReplacement) obj;
+    return offset == other.offset && length == other.length && text.equals(other.text);
+  }
+
+  @Override
+  public int hashCode() {
+    return Objects.hash(offset, length, text);
+  }
+
+  @Override
+  public String toString() {
+    return "TextReplacement{" + offset + "+" + length + " -> \"" + text + "\"}";
+  }
+}
@@ -0,0 +1,343 @@
+/*
+ * Copyright 2019 John McDonnell.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.johnmcdonnell.netbeans.plugin.google.java.codeformatter.format;
+
+import com.github.difflib.DiffUtils;
+import com.github.difflib.algorithm.DiffException;
+import com.github.difflib.patch.AbstractDelta;
+import com.github.difflib.patch.Chunk;
+import com.google.common.collect.RangeSet;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Turns line deltas into the smallest character replacements that produce the same text, so that
+ * applying them leaves untouched characters, and any positions within them, alone.
+ *
+ * @author John McDonnell
+ */
+public final class TextReplacements {
+
+  /** Changed regions up to this size on both sides are diffed character by character. */
+  private static final int MAX_CHARACTER_DIFF_LENGTH = 2048;
+
+  private TextReplacements() {}
+
+  /**
+   * Converts line deltas into character replacements against the original text. Deltas are expected
+   * in the order they apply, with target positions relative to the text produced by the deltas
+   * before them, as produced by {@link DiffUtils#diff(String, String,
+   * com.github.difflib.algorithm.DiffAlgorithmListener)} or {@link LineDiff}. The line numbers
+   * count every line feed of the original text, so its last line is the one after its final line
+   * feed.
+   *
+   * @return the replacements in ascending offset order
+   */
+  public static List<TextReplacement> fromDeltas(
+      CharSequence original, List<AbstractDelta<String>> deltas) {
+    int[] lineStarts = lineStarts(original);
+    List<TextReplacement> lineReplacements = new ArrayList<>(deltas.size());
+    int shift = 0;
+    for (AbstractDelta<String> delta : deltas) {
+      Chunk<String> source = delta.getSource();
+      Chunk<String> target = delta.getTarget();
+      int removedLines;
+      List<String> insertedLines;
+      switch (delta.getType()) {
+        case DELETE:
+          removedLines = source.size();
+          insertedLines = new ArrayList<>();
+          break;
+        case INSERT:
+          removedLines = 0;
+          insertedLines = target.getLines();
+          break;
+        case CHANGE:
+          removedLines = source.size();
+          insertedLines = target.getLines();
+          break;
+        default:
+          // Only other option is EQUALS and we have nothing to do
+          continue;
+      }
+
+      int line = target.getPosition() - shift;
+      shift += insertedLines.size() - removedLines;
+
+      int start = lineOffset(lineStarts, original.length(), line);
+      int end = lineOffset(lineStarts, original.length(), line + removedLines);
+      StringBuilder inserted = new StringBuilder();
+      for (String insertedLine : insertedLines) {
+        inserted.append(insertedLine).append('\n');
+      }
+      if (line + removedLines == lineStarts.length) {
+        // The last line has no newline, so the lines replacing or following it end without one
+        if (inserted.length() > 0) {
+          inserted.setLength(inserted.length() - 1);
+          if (removedLines == 0) {
+            inserted.insert(0, '\n');
+          }
+        } else if (start > 0) {
+          // The line before the removed lines becomes the last line, and loses its newline
+          start--;
+        }
+      }
+      lineReplacements.add(new TextReplacement(start, end - start, inserted.toString()));
+    }
+
+    List<TextReplacement> replacements = new ArrayList<>();
+    if (!lineReplacements.isEmpty()) {
+      addWordChanges(replacements, original, lineReplacements);
+    }
+    return replacements;
+  }
+
+  /**
+   * Adds the replacements for the span of all of the line replacements at once. The line deltas of
+   * a reformat often pair up lines of neighbouring statements, such as their closing braces, so
+   * each on its own differs in more than whitespace while the span as a whole does not. The words
+   * of the span, its runs of non-whitespace characters, are diffed instead, and only the text
+   * between the words they have in common is replaced. For a change in whitespace alone that takes
+   * linear time.
+   */
+  private static void addWordChanges(
+      List<TextReplacement> replacements,
+      CharSequence original,
+      List<TextReplacement> lineReplacements) {
+    int from = lineReplacements.get(0).getOffset();
+    int to = lineReplacements.get(lineReplacements.size() - 1).getEndOffset();
+    StringBuilder revisedSpan = new StringBuilder(to - from);
+    int offset = from;
+    for (TextReplacement lineReplacement : lineReplacements) {
+      revisedSpan.append(original, offset, lineReplacement.getOffset());
+      revisedSpan.append(lineReplacement.getText());
+      offset = lineReplacement.getEndOffset();
+    }
+    String revised = revisedSpan.toString();
+    LineTable originalWords = LineTable.words(original, from, to);
+    LineTable revisedWords = LineTable.words(revised, 0, revised.length());
+    List<AbstractDelta<String>> wordDeltas;
+    try {
+      wordDeltas = LineDiff.diff(originalWords, revisedWords);
+    } catch (DiffException ex) {
+      for (TextReplacement lineReplacement : lineReplacements) {
+        addMinimal(
+            replacements,
+            original,
+            lineReplacement.getOffset(),
+            lineReplacement.getEndOffset(),
+            lineReplacement.getText());
+      }
+      return;
+    }
+
+    // The ends of the last pair of words in common
+    int originalEnd = from;
+    int revisedEnd = 0;
+    int originalWord = 0;
+    int revisedWord = 0;
+    for (int i = 0; i <= wordDeltas.size(); i++) {
+      int commonEnd =
+          i < wordDeltas.size()
+              ? wordDeltas.get(i).getSource().getPosition()
+              : originalWords.size();
+      for (; originalWord < commonEnd; originalWord++, revisedWord++) {
+        addMinimal(
+            replacements,
+            original,
+            originalEnd,
+            originalWords.start(originalWord),
+            revised.substring(revisedEnd, revisedWords.start(revisedWord)));
+        originalEnd = originalWords.end(originalWord);
+        revisedEnd = revisedWords.end(revisedWord);
+      }
+      if (i < wordDeltas.size()) {
+        originalWord += wordDeltas.get(i).getSource().size();
+        revisedWord += wordDeltas.get(i).getTarget().size();
+      }
+    }
+    addMinimal(replacements, original, originalEnd, to, revised.substring(revisedEnd));
+  }
+
+  /**
+   * Merges replacements separated only by whitespace within a line, so that applying them fires
+   * fewer document events. Unchanged text between replacements is never rewritten, and they are
+   * never merged across a line break, so that positions anchored to the text of a line or to the
+   * start of a line are kept. Replacements are never merged across guarded text either.
+   *
+   * @param original the text the replacements apply to
+   * @param replacements the replacements, in ascending offset order
+   * @param guarded the ranges that must not be replaced, or {@code null} if there are none
+   * @return the merged replacements, in ascending offset order
+   */
+  public static List<TextReplacement> coalesce(
+      CharSequence original, List<TextReplacement> replacements, RangeSet<Integer> guarded) {
+    List<TextReplacement> merged = new ArrayList<>(replacements.size());
+    Run run = null;
+    for (TextReplacement replacement : replacements) {
+      if (run == null
+          || !isBlankWithinLine(original, run.end, replacement.getOffset())
+          || !run.extend(original, replacement, guarded)) {
+        if (run != null) {
+          merged.add(run.toReplacement());
+        }
+        run = new Run(replacement);
+      }
+    }
+    if (run != null) {
+      merged.add(run.toReplacement());
+    }
+    return merged;
+  }
+
+  /**
+   * Replacements being merged into one, covering them and the original text between them. The text
+   * is built up once, rather than copied again on every merge.
+   */
+  private static final class Run {
+
+    private final int offset;
+    private final StringBuilder text;
+    private int end;
+
+    Run(TextReplacement first) {
+      this.offset = first.getOffset();
+      this.text = new StringBuilder(first.getText());
+      this.end = first.getEndOffset();
+    }
+
+    /**
+     * Extends the run over the next replacement.
+     *
+     * @return {@code false}, leaving the run as it was, if that would replace guarded text
+     */
+    boolean extend(CharSequence original, TextReplacement next, RangeSet<Integer> guarded) {
+      if (guarded != null
+          && GuardedRanges.touches(
+              new TextReplacement(offset, next.getEndOffset() - offset, ""), guarded)) {
+        return false;
+      }
+      text.append(original, end, next.getOffset()).append(next.getText());
+      end = next.getEndOffset();
+      return true;
+    }
+
+    TextReplacement toReplacement() {
+      return new TextReplacement(offset, end - offset, text.toString());
+    }
+  }
+
+  /** Returns whether the text between two replacements is blank and lies within a line. */
+  private static boolean isBlankWithinLine(CharSequence text, int from, int to) {
+    for (int i = from; i < to; i++) {
+      char c = text.charAt(i);
+      if (c == '\n' || !Character.isWhitespace(c)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Adds the replacements that turn {@code original[start, end)} into {@code replacement}, leaving
+   * out the characters the two have in common.
+   */
+  static void addMinimal(
+      List<TextReplacement> replacements,
+      CharSequence original,
+      int start,
+      int end,
+      String replacement) {
+    int prefix = 0;
+    int maxPrefix = Math.min(end - start, replacement.length());
+    while (prefix < maxPrefix && original.charAt(start + prefix) == replacement.charAt(prefix)) {
+      prefix++;
+    }
+    int suffix = 0;
+    int maxSuffix = maxPrefix - prefix;
+    while (suffix < maxSuffix
+        && original.charAt(end - 1 - suffix)
+            == replacement.charAt(replacement.length() - 1 - suffix)) {
+      suffix++;
+    }
+    int from = start + prefix;
+    int to = end - suffix;
+    String text = replacement.substring(prefix, replacement.length() - suffix);
+    if (from == to && text.isEmpty()) {
+      return;
+    }
+    if (from == to || text.isEmpty()) {
+      replacements.add(new TextReplacement(from, to - from, text));
+      return;
+    }
+    if (to - from <= MAX_CHARACTER_DIFF_LENGTH && text.length() <= MAX_CHARACTER_DIFF_LENGTH) {
+      try {
+        addCharacterDiff(replacements, original, from, to, text);
+        return;
+      } catch (DiffException ex) {
+        // Fall back to replacing the whole region
+      }
+    }
+    replacements.add(new TextReplacement(from, to - from, text));
+  }
+
+  private static void addCharacterDiff(
+      List<TextReplacement> replacements, CharSequence original, int from, int to, String text)
+      throws DiffException {
+    List<Character> source = characters(original, from, to);
+    List<Character> target = characters(text, 0, text.length());
+    for (AbstractDelta<Character> delta : DiffUtils.diff(source, target).getDeltas()) {
+      StringBuilder inserted = new StringBuilder(delta.getTarget().size());
+      for (Character c : delta.getTarget().getLines()) {
+        inserted.append(c.charValue());
+      }
+      replacements.add(
+          new TextReplacement(
+              from + delta.getSource().getPosition(),
+              delta.getSource().size(),
+              inserted.toString()));
+    }
+  }
+
+  private static List<Character> characters(CharSequence text, int from, int to) {
+    List<Character> characters = new ArrayList<>(to - from);
+    for (int i = from; i < to; i++) {
+      characters.add(text.charAt(i));
+    }
+    return characters;
+  }
+
+  private static int[] lineStarts(CharSequence text) {
+    int count = 1;
+    for (int i = 0; i < text.length(); i++) {
+      if (text.charAt(i) == '\n') {
+        count++;
+      }
+    }
+    int[] starts = new int[count];
+    int line = 1;
+    for (int i = 0; i < text.length(); i++) {
+      if (text.charAt(i) == '\n') {
+        starts[line++] = i + 1;
+      }
+    }
+    return starts;
+  }
+
+  private static int lineOffset(int[] lineStarts, int length, int line) {
+    return line < lineStarts.length ? lineStarts[line] : length;
+  }
+}
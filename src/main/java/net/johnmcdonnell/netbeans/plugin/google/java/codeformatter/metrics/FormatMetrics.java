@@ -0,0 +1,262 @@
+/*
+ * Copyright 2019 John McDonnell.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.johnmcdonnell.netbeans.plugin.google.java.codeformatter.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.management.JMException;
+import javax.management.ObjectName;
+import net.johnmcdonnell.netbeans.plugin.google.java.codeformatter.format.FormattedContentCache;
+import net.johnmcdonnell.netbeans.plugin.google.java.codeformatter.format.PreformatCache;
+import net.johnmcdonnell.netbeans.plugin.google.java.codeformatter.metrics.FormatTrace.Phase;
+import net.johnmcdonnell.netbeans.plugin.google.java.codeformatter.metrics.FormatTrace.Trigger;
+
+/**
+ * Collects the {@link FormatTrace} of every format into rolling histograms, kept apart by what
+ * triggered the format so that idle, background and bulk formats do not skew the save latencies,
+ * and exposed over JMX as {@value #OBJECT_NAME}. Each trace is logged at {@code FINE} to the
+ * {@value #LOGGER_NAME} logger, and saves slower than the threshold are logged at {@code INFO}.
+ *
+ * @author John McDonnell
+ */
+public final class FormatMetrics implements FormatMetricsMXBean {
+
+  public static final String LOGGER_NAME =
+      "net.johnmcdonnell.netbeans.plugin.google.java.codeformatter";
+
+  static final String OBJECT_NAME =
+      "net.johnmcdonnell.netbeans.plugin.google.java.codeformatter:type=FormatMetrics";
+
+  private static final Logger LOG = Logger.getLogger(LOGGER_NAME);
+
+  private static final int HISTOGRAM_SIZE = 1024;
+
+  private static final FormatMetrics DEFAULT = register(new FormatMetrics());
+
+  private final Map<Trigger, Histograms> histograms = new EnumMap<>(Trigger.class);
+  private final AtomicLong slowSaves = new AtomicLong();
+  private final AtomicLong excludedSaves = new AtomicLong();
+  private final AtomicLong generatedSaves = new AtomicLong();
+  private final AtomicLong documentMutations = new AtomicLong();
+  private final AtomicLong timedOutFormats = new AtomicLong();
+  private final AtomicLong brokenCircuitSkips = new AtomicLong();
+  private volatile long slowSaveThresholdMillis =
+      Long.getLong(LOGGER_NAME + ".slowSaveThresholdMillis", 500);
+
+  FormatMetrics() {
+    for (Trigger trigger : Trigger.values()) {
+      histograms.put(trigger, new Histograms());
+    }
+  }
+
+  public static FormatMetrics getDefault() {
+    return DEFAULT;
+  }
+
+  /** Records a finished format in the histograms of its trigger. */
+  public void record(FormatTrace trace) {
+    long totalNanos = histograms.get(trace.getTrigger()).add(trace);
+    if (trace.getTrigger() != Trigger.SAVE) {
+      LOG.log(Level.FINE, "Format: {0}", trace);
+      return;
+    }
+    documentMutations.addAndGet(trace.getDocumentMutations());
+
+    if (TimeUnit.NANOSECONDS.toMillis(totalNanos) >= slowSaveThresholdMillis) {
+      slowSaves.incrementAndGet();
+      LOG.log(Level.INFO, "Slow format on save: {0}", trace);
+    } else {
+      LOG.log(Level.FINE, "Format on save: {0}", trace);
+    }
+  }
+
+  /**
+   * Records a save that was not formatted because the file is excluded by the project's patterns,
+   * or is generated.
+   */
+  public void recordSkipped(String path, boolean generated) {
+    (generated ? generatedSaves : excludedSaves).incrementAndGet();
+    LOG.log(
+        Level.FINE,
+        "Not formatting {0} on save: {1}",
+        new Object[] {path, generated ? "generated" : "excluded"});
+  }
+
+  /** Records a format that was abandoned because it took longer than its time budget. */
+  public void recordTimedOut(int documentLength, long timeoutMillis) {
+    timedOutFormats.incrementAndGet();
+    LOG.log(
+        Level.INFO,
+        "Abandoned formatting {0} characters after {1} ms",
+        new Object[] {documentLength, timeoutMillis});
+  }
+
+  /**
+   * Records a format that was not attempted because formatting the document has failed too often.
+   */
+  public void recordCircuitOpen() {
+    brokenCircuitSkips.incrementAndGet();
+  }
+
+  @Override
+  public long getSaveCount() {
+    return histograms.get(Trigger.SAVE).total.getCount();
+  }
+
+  @Override
+  public long getSlowSaveCount() {
+    return slowSaves.get();
+  }
+
+  @Override
+  public long getDocumentMutationCount() {
+    return documentMutations.get();
+  }
+
+  @Override
+  public long getExcludedSaveCount() {
+    return excludedSaves.get();
+  }
+
+  @Override
+  public long getGeneratedSaveCount() {
+    return generatedSaves.get();
+  }
+
+  @Override
+  public long getTimedOutFormatCount() {
+    return timedOutFormats.get();
+  }
+
+  @Override
+  public long getBrokenCircuitSkipCount() {
+    return brokenCircuitSkips.get();
+  }
+
+  @Override
+  public long getSlowSaveThresholdMillis() {
+    return slowSaveThresholdMillis;
+  }
+
+  @Override
+  public void setSlowSaveThresholdMillis(long thresholdMillis) {
+    this.slowSaveThresholdMillis = thresholdMillis;
+  }
+
+  @Override
+  public long getContentCacheHitCount() {
+    return FormattedContentCache.getDefault().getHitCount();
+  }
+
+  @Override
+  public long getContentCacheMissCount() {
+    return FormattedContentCache.getDefault().getMissCount();
+  }
+
+  @Override
+  public long getPreformatHitCount() {
+    return PreformatCache.getDefault().getHitCount();
+  }
+
+  @Override
+  public long getPreformatMissCount() {
+    return PreformatCache.getDefault().getMissCount();
+  }
+
+  @Override
+  public Map<String, Long> getFormatCounts() {
+    Map<String, Long> counts = new TreeMap<>();
+    for (Trigger trigger : Trigger.values()) {
+      counts.put(trigger.name().toLowerCase(), histograms.get(trigger).total.getCount());
+    }
+    return counts;
+  }
+
+  @Override
+  public Map<String, Double> getPercentilesMillis() {
+    Map<String, Double> percentiles = new TreeMap<>();
+    histograms.get(Trigger.SAVE).addPercentiles(percentiles, "");
+    return percentiles;
+  }
+
+  @Override
+  public Map<String, Double> getPercentilesMillisByTrigger() {
+    Map<String, Double> percentiles = new TreeMap<>();
+    for (Trigger trigger : Trigger.values()) {
+      histograms.get(trigger).addPercentiles(percentiles, trigger.name().toLowerCase() + ".");
+    }
+    return percentiles;
+  }
+
+  private static void addPercentiles(
+      Map<String, Double> percentiles, String name, RollingHistogram histogram) {
+    percentiles.put(name + ".p50", toMillis(histogram.getPercentile(0.5)));
+    percentiles.put(name + ".p90", toMillis(histogram.getPercentile(0.9)));
+    percentiles.put(name + ".p99", toMillis(histogram.getPercentile(0.99)));
+    percentiles.put(name + ".max", toMillis(histogram.getPercentile(1)));
+  }
+
+  private static double toMillis(long nanos) {
+    return nanos / 1_000_000d;
+  }
+
+  /** The rolling histograms of the total and per phase time of the formats of one trigger. */
+  private static final class Histograms {
+
+    private final Map<Phase, RollingHistogram> phases = new EnumMap<>(Phase.class);
+    private final RollingHistogram total = new RollingHistogram(HISTOGRAM_SIZE);
+
+    Histograms() {
+      for (Phase phase : Phase.values()) {
+        phases.put(phase, new RollingHistogram(HISTOGRAM_SIZE));
+      }
+    }
+
+    /** Adds the times of the trace, and returns its total time. */
+    long add(FormatTrace trace) {
+      for (Phase phase : Phase.values()) {
+        phases.get(phase).add(trace.getNanos(phase));
+      }
+      long totalNanos = trace.getTotalNanos();
+      total.add(totalNanos);
+      return totalNanos;
+    }
+
+    void addPercentiles(Map<String, Double> percentiles, String prefix) {
+      FormatMetrics.addPercentiles(percentiles, prefix + "total", total);
+      for (Phase phase : Phase.values()) {
+        FormatMetrics.addPercentiles(
+            percentiles, prefix + phase.name().toLowerCase(), phases.get(phase));
+      }
+    }
+  }
+
+  private static FormatMetrics register(FormatMetrics metrics) {
+    try {
+      ManagementFactory.getPlatformMBeanServer()
+          .registerMBean(metrics, new ObjectName(OBJECT_NAME));
+    } catch (JMException | SecurityException ex) {
+      LOG.log(Level.FINE, "Unable to register format metrics with JMX", ex);
+    }
+    return metrics;
+  }
+}
@@ -0,0 +1,75 @@
+/*
+ * Copyright 2019 John McDonnell.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.johnmcdonnell.netbeans.plugin.google.java.codeformatter.metrics;
+
+import java.util.Map;
+
+/**
+ * The format timings exposed over JMX. The save counts and percentiles cover only formats on save;
+ * idle, background and bulk formats are reported apart from them.
+ *
+ * @author John McDonnell
+ */
+public interface FormatMetricsMXBean {
+
+  long getSaveCount();
+
+  long getSlowSaveCount();
+
+  /** The changes made to documents by all on-save tasks, over all of the recorded saves. */
+  long getDocumentMutationCount();
+
+  /** The saves left unformatted because the project excludes the file. */
+  long getExcludedSaveCount();
+
+  /** The saves left unformatted because the file is marked {@code @Generated}. */
+  long getGeneratedSaveCount();
+
+  /** The formats abandoned because they took longer than their time budget. */
+  long getTimedOutFormatCount();
+
+  /** The formats not attempted because formatting the document kept failing or timing out. */
+  long getBrokenCircuitSkipCount();
+
+  long getSlowSaveThresholdMillis();
+
+  void setSlowSaveThresholdMillis(long thresholdMillis);
+
+  long getContentCacheHitCount();
+
+  long getContentCacheMissCount();
+
+  /** The saves that applied deltas computed when the document was opened. */
+  long getPreformatHitCount();
+
+  /** The full format saves that had no usable deltas computed when the document was opened. */
+  long getPreformatMissCount();
+
+  /** The number of formats recorded, keyed by trigger, for example {@code idle}. */
+  Map<String, Long> getFormatCounts();
+
+  /**
+   * The 50th, 90th and 99th percentiles and the maximum of the recent saves, in milliseconds, keyed
+   * by phase and percentile, for example {@code format.p90}.
+   */
+  Map<String, Double> getPercentilesMillis();
+
+  /**
+   * The percentiles of the recent formats of every trigger, in milliseconds, keyed by trigger,
+   * phase and percentile, for example {@code bulk.format.p90}.
+   */
+  Map<String, Double> getPercentilesMillisByTrigger();
+}
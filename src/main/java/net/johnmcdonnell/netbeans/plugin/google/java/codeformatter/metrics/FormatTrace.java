@@ -0,0 +1,160 @@
+/*
+ * Copyright 2019 John McDonnell.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.johnmcdonnell.netbeans.plugin.google.java.codeformatter.metrics;
+
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The time spent in each phase of formatting a single document, along with the size of the work. A
+ * trace is filled in by one thread at a time as the document moves through the phases.
+ *
+ * @author John McDonnell
+ */
+public final class FormatTrace {
+
+  /** What a document was formatted for, each kept in its own histograms. */
+  public enum Trigger {
+    /** Formatting a document as it is saved. */
+    SAVE,
+    /** Formatting the lines edited once typing has paused. */
+    IDLE,
+    /** Formatting a document ahead of its save, without applying the result. */
+    BACKGROUND,
+    /** Formatting the files of a folder or project. */
+    BULK
+  }
+
+  /** The phases of formatting a document. */
+  public enum Phase {
+    /** Finding the project and its settings for the document. */
+    LOOKUP,
+    /** Reading the text of the document. */
+    READ,
+    /** Running google-java-format over the text. */
+    FORMAT,
+    /** Diffing the formatted text against the original. */
+    DIFF,
+    /** Applying the changes to the document. */
+    APPLY
+  }
+
+  private final Trigger trigger;
+  private final long[] nanos = new long[Phase.values().length];
+  private int documentLength;
+  private int deltaCount;
+  private int editCount;
+  private int charactersChanged;
+  private int documentMutations;
+
+  /** Creates the trace of a save. */
+  public FormatTrace() {
+    this(Trigger.SAVE);
+  }
+
+  public FormatTrace(Trigger trigger) {
+    this.trigger = Objects.requireNonNull(trigger);
+  }
+
+  public Trigger getTrigger() {
+    return trigger;
+  }
+
+  /** Adds the time elapsed since {@code startNanos}, a {@link System#nanoTime()}, to the phase. */
+  public void addSince(Phase phase, long startNanos) {
+    nanos[phase.ordinal()] += System.nanoTime() - startNanos;
+  }
+
+  public long getNanos(Phase phase) {
+    return nanos[phase.ordinal()];
+  }
+
+  public long getTotalNanos() {
+    long total = 0;
+    for (long phaseNanos : nanos) {
+      total += phaseNanos;
+    }
+    return total;
+  }
+
+  public int getDocumentLength() {
+    return documentLength;
+  }
+
+  public void setDocumentLength(int documentLength) {
+    this.documentLength = documentLength;
+  }
+
+  /** The number of line deltas between the original and the formatted text. */
+  public int getDeltaCount() {
+    return deltaCount;
+  }
+
+  public void setDeltaCount(int deltaCount) {
+    this.deltaCount = deltaCount;
+  }
+
+  /** The number of edits made to the document to apply the deltas. */
+  public int getEditCount() {
+    return editCount;
+  }
+
+  /** The number of characters removed from and inserted into the document. */
+  public int getCharactersChanged() {
+    return charactersChanged;
+  }
+
+  public void addEdit(int removed, int inserted) {
+    editCount++;
+    charactersChanged += removed + inserted;
+  }
+
+  /**
+   * The number of changes made to the document by all of the on-save tasks of the save, including
+   * the editor's own, of which {@link #getEditCount()} are this formatter's.
+   */
+  public int getDocumentMutations() {
+    return documentMutations;
+  }
+
+  public void setDocumentMutations(int documentMutations) {
+    this.documentMutations = documentMutations;
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder text = new StringBuilder();
+    text.append("trigger=").append(trigger.name().toLowerCase()).append(", total=").append(TimeUnit.NANOSECONDS.toMillis(getTotalNanos())).append("ms");
+    for (Phase phase : Phase.values()) {
+      text.append(", ")
+          .append(phase.name().toLowerCase())
+          .append('=')
+          .append(TimeUnit.NANOSECONDS.toMillis(getNanos(phase)))
+          .append("ms");
+    }
+    return text.append(", length=")
+        .append(documentLength)
+        .append(", deltas=")
+        .append(deltaCount)
+        .append(", edits=")
+        .append(editCount)
+        .append(", charactersChanged=")
+        .append(charactersChanged)
+        .append(", mutations=")
+        .append(documentMutations)
+        .toString();
+  }
+}
@@ -0,0 +1,65 @@
+/*
+ * Copyright 2019 John McDonnell.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.johnmcdonnell.netbeans.plugin.google.java.codeformatter.metrics;
+
+import java.util.Arrays;
+
+/**
+ * Keeps the most recent samples of a value in a fixed size ring buffer, so percentiles reflect
+ * recent behaviour and the memory used never grows.
+ *
+ * @author John McDonnell
+ */
+public final class RollingHistogram {
+
+  private final long[] samples;
+  private int next;
+  private long count;
+
+  public RollingHistogram(int capacity) {
+    this.samples = new long[capacity];
+  }
+
+  public synchronized void add(long sample) {
+    samples[next] = sample;
+    next = (next + 1) % samples.length;
+    count++;
+  }
+
+  /** The number of samples added since the histogram was created. */
+  public synchronized long getCount() {
+    return count;
+  }
+
+  /**
+   * Returns the value below which the given fraction of the retained samples fall, or 0 when there
+   * are no samples.
+   *
+   * @param fraction between 0 and 1
+   */
+  public long getPercentile(double fraction) {
+    long[] sorted;
+    synchronized (this) {
+      sorted = Arrays.copyOf(samples, (int) Math.min(count, samples.length));
+    }
+    if (sorted.length == 0) {
+      return 0;
+    }
+    Arrays.sort(sorted);
+    int index = (int) Math.ceil(fraction * sorted.length) - 1;
+    return sorted[Math.max(0, Math.min(index, sorted.length - 1))];
+  }
+}
@@ -0,0 +1,208 @@
+/*
+ * Copyright 2019 John McDonnell.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.johnmcdonnell.netbeans.plugin.google.java.codeformatter.settings;
+
+import com.google.googlejavaformat.java.JavaFormatterOptions.Style;
+import java.lang.ref.Reference;
+import java.lang.ref.WeakReference;
+import java.util.Map;
+import java.util.WeakHashMap;
+import net.johnmcdonnell.netbeans.plugin.google.java.codeformatter.format.FormatterOptions;
+import org.netbeans.api.project.FileOwnerQuery;
+import org.netbeans.api.project.Project;
+import org.netbeans.spi.project.AuxiliaryProperties;
+import org.openide.filesystems.FileObject;
+
+/**
+ * The formatter settings of a project, read from its shared {@link AuxiliaryProperties}. Settings
+ * are cached per project, and the owning project per file, so looking them up on save does not read
+ * the project metadata again; writing a setting through {@link #store} refreshes the cache.
+ *
+ * @author John McDonnell
+ */
+public final class FormatterSettings {
+
+  public static final String ENABLED = "isGoogleJavaCodeFormatterEnabled";
+  public static final String BACKGROUND_ENABLED = "isGoogleJavaCodeFormatterBackgroundEnabled";
+  public static final String CHANGED_LINES_ONLY = "isGoogleJavaCodeFormatterChangedLinesOnly";
+  public static final String IDLE_ENABLED = "isGoogleJavaCodeFormatterIdleEnabled";
+  public static final String AOSP_STYLE = "isGoogleJavaCodeFormatterAospStyle";
+  public static final String SKIP_REMOVING_UNUSED_IMPORTS =
+      "isGoogleJavaCodeFormatterSkipRemovingUnusedImports";
+  public static final String SKIP_SORTING_IMPORTS = "isGoogleJavaCodeFormatterSkipSortingImports";
+  public static final String INCLUDES = "googleJavaCodeFormatterIncludes";
+  public static final String EXCLUDES = "googleJavaCodeFormatterExcludes";
+
+  private static final FormatterSettings DISABLED =
+      new FormatterSettings(
+          false, false, false, false, FormatterOptions.DEFAULT, SourceFilter.NONE);
+
+  private static final Map<Project, FormatterSettings> SETTINGS = new WeakHashMap<>();
+  private static final Map<FileObject, Reference<Project>> OWNERS = new WeakHashMap<>();
+
+  /**
+   * Counts the settings written through {@link #store}, guarded by {@link #SETTINGS}. Settings read
+   * while a setting was being written may already be stale, and are not cached.
+   */
+  private static long generation;
+
+  private final boolean enabled;
+  private final boolean backgroundEnabled;
+  private final boolean changedLinesOnly;
+  private final boolean idleEnabled;
+  private final FormatterOptions options;
+  private final SourceFilter filter;
+
+  private FormatterSettings(
+      boolean enabled,
+      boolean backgroundEnabled,
+      boolean changedLinesOnly,
+      boolean idleEnabled,
+      FormatterOptions options,
+      SourceFilter filter) {
+    this.enabled = enabled;
+    this.backgroundEnabled = backgroundEnabled;
+    this.changedLinesOnly = changedLinesOnly;
+    this.idleEnabled = idleEnabled;
+    this.options = options;
+    this.filter = filter;
+  }
+
+  /**
+   * Returns the settings of the project owning the file, or settings with formatting disabled if
+   * the file does not belong to a project.
+   */
+  public static FormatterSettings forFile(FileObject file) {
+    Project project = getOwner(file);
+    return project == null ? DISABLED : forProject(project);
+  }
+
+  public static FormatterSettings forProject(Project project) {
+    long readGeneration;
+    synchronized (SETTINGS) {
+      FormatterSettings settings = SETTINGS.get(project);
+      if (settings != null) {
+        return settings;
+      }
+      readGeneration = generation;
+    }
+    // Read outside the lock, as reading the project metadata takes the project's own locks
+    FormatterSettings settings = read(project);
+    synchronized (SETTINGS) {
+      if (readGeneration == generation) {
+        SETTINGS.put(project, settings);
+      }
+    }
+    return settings;
+  }
+
+  /** Reads a setting directly from the project, bypassing the cache. */
+  public static boolean load(Project project, String key) {
+    AuxiliaryProperties auxiliaryProperties = project.getLookup().lookup(AuxiliaryProperties.class);
+    return auxiliaryProperties != null && Boolean.parseBoolean(auxiliaryProperties.get(key, true));
+  }
+
+  /**
+   * Reads a text setting directly from the project, bypassing the cache.
+   *
+   * @return the setting, or {@code null} if it has not been set
+   */
+  public static String loadText(Project project, String key) {
+    AuxiliaryProperties auxiliaryProperties = project.getLookup().lookup(AuxiliaryProperties.class);
+    return auxiliaryProperties == null ? null : auxiliaryProperties.get(key, true);
+  }
+
+  /** Writes a setting to the project and refreshes its cached settings. */
+  public static void store(Project project, String key, boolean value) {
+    store(project, key, value ? "true" : "false");
+  }
+
+  /** Writes a text setting to the project and refreshes its cached settings. */
+  public static void store(Project project, String key, String value) {
+    AuxiliaryProperties auxiliaryProperties = project.getLookup().lookup(AuxiliaryProperties.class);
+    if (auxiliaryProperties != null) {
+      auxiliaryProperties.put(key, value, true);
+    }
+    synchronized (SETTINGS) {
+      SETTINGS.remove(project);
+      generation++;
+    }
+  }
+
+  public boolean isEnabled() {
+    return enabled;
+  }
+
+  public boolean isBackgroundEnabled() {
+    return backgroundEnabled;
+  }
+
+  public boolean isChangedLinesOnly() {
+    return changedLinesOnly;
+  }
+
+  /** Whether the lines being edited are formatted whenever typing pauses. */
+  public boolean isIdleEnabled() {
+    return idleEnabled;
+  }
+
+  public FormatterOptions getOptions() {
+    return options;
+  }
+
+  /** Decides which of the project's files are left unformatted. */
+  public SourceFilter getFilter() {
+    return filter;
+  }
+
+  private static FormatterSettings read(Project project) {
+    FormatterOptions options =
+        new FormatterOptions(
+            load(project, AOSP_STYLE) ? Style.AOSP : Style.GOOGLE,
+            !load(project, SKIP_REMOVING_UNUSED_IMPORTS),
+            !load(project, SKIP_SORTING_IMPORTS));
+    String excludes = loadText(project, EXCLUDES);
+    SourceFilter filter =
+        new SourceFilter(
+            project.getProjectDirectory(),
+            loadText(project, INCLUDES),
+            excludes == null ? SourceFilter.DEFAULT_EXCLUDES : excludes);
+    return new FormatterSettings(
+        load(project, ENABLED),
+        load(project, BACKGROUND_ENABLED),
+        load(project, CHANGED_LINES_ONLY),
+        load(project, IDLE_ENABLED),
+        options,
+        filter);
+  }
+
+  private static Project getOwner(FileObject file) {
+    synchronized (OWNERS) {
+      Reference<Project> owner = OWNERS.get(file);
+      Project project = owner == null ? null : owner.get();
+      if (project != null) {
+        return project;
+      }
+    }
+    Project project = FileOwnerQuery.getOwner(file);
+    if (project != null) {
+      synchronized (OWNERS) {
+        OWNERS.put(file, new WeakReference<>(project));
+      }
+    }
+    return project;
+  }
+}
@@ -0,0 +1,128 @@
+/*
+ * Copyright 2019 John McDonnell.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.johnmcdonnell.netbeans.plugin.google.java.codeformatter.settings;
+
+import java.nio.file.FileSystem;
+import java.nio.file.FileSystems;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+import org.openide.filesystems.FileObject;
+import org.openide.filesystems.FileUtil;
+
+/**
+ * Decides which files of a project are left unformatted: those outside its include patterns or
+ * inside its exclude patterns, which are globs relative to the project folder, and generated
+ * sources marked {@code @Generated} near the top of the file. The patterns are compiled once per
+ * project, as part of its {@link FormatterSettings}.
+ *
+ * @author John McDonnell
+ */
+public final class SourceFilter {
+
+  /** The exclude patterns of a project that has not set any. */
+  public static final String DEFAULT_EXCLUDES =
+      "**/generated-sources/**, **/generated-test-sources/**, **/build/generated/**";
+
+  /** How much of the start of a file is searched for a {@code @Generated} annotation. */
+  public static final int HEADER_LENGTH = 8192;
+
+  private static final Logger LOG = Logger.getLogger(SourceFilter.class.getName());
+
+  private static final Pattern GENERATED =
+      Pattern.compile("@(?:javax\\.annotation\\.(?:processing\\.)?)?Generated\\b");
+
+  static final SourceFilter NONE = new SourceFilter(null, "", "");
+
+  private final FileObject root;
+  private final List<PathMatcher> includes;
+  private final List<PathMatcher> excludes;
+
+  /**
+   * @param root the folder the patterns are relative to
+   * @param includes comma separated globs of the files to format, or empty to format all files
+   * @param excludes comma separated globs of the files not to format
+   */
+  SourceFilter(FileObject root, String includes, String excludes) {
+    this.root = root;
+    this.includes = compile(includes);
+    this.excludes = compile(excludes);
+  }
+
+  /** Returns whether the file is left unformatted because of the include and exclude patterns. */
+  public boolean isExcluded(FileObject file) {
+    if (root == null || (includes.isEmpty() && excludes.isEmpty())) {
+      return false;
+    }
+    String relativePath = FileUtil.getRelativePath(root, file);
+    if (relativePath == null) {
+      return false;
+    }
+    Path path;
+    try {
+      path = FileSystems.getDefault().getPath(relativePath);
+    } catch (InvalidPathException ex) {
+      return false;
+    }
+    return (!includes.isEmpty() && !matches(includes, path)) || matches(excludes, path);
+  }
+
+  /**
+   * Returns whether the start of the text has a {@code @Generated} annotation, which marks the
+   * whole file as generated.
+   */
+  public static boolean isGenerated(CharSequence text) {
+    Matcher matcher = GENERATED.matcher(text);
+    matcher.region(0, Math.min(text.length(), HEADER_LENGTH));
+    return matcher.find();
+  }
+
+  private static boolean matches(List<PathMatcher> matchers, Path path) {
+    for (PathMatcher matcher : matchers) {
+      if (matcher.matches(path)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static List<PathMatcher> compile(String patterns) {
+    if (patterns == null || patterns.trim().isEmpty()) {
+      return Collections.emptyList();
+    }
+    FileSystem fileSystem = FileSystems.getDefault();
+    List<PathMatcher> matchers = new ArrayList<>();
+    for (String pattern : patterns.split(",")) {
+      if (pattern.trim().isEmpty()) {
+        continue;
+      }
+      try {
+        matchers.add(fileSystem.getPathMatcher("glob:" + pattern.trim()));
+      } catch (PatternSyntaxException ex) {
+        LOG.log(Level.INFO, "Ignoring invalid pattern " + pattern.trim(), ex);
+      }
+    }
+    return matchers;
+  }
+}
@@ -15,59 +15,297 @@
  */
 package net.johnmcdonnell.netbeans.plugin.google.java.codeformatter.task;
 
+import com.github.difflib.algorithm.DiffException;
+import com.github.difflib.patch.AbstractDelta;
+import com.google.googlejavaformat.java.FormatterException;
+import java.io.IOException;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.JTextComponent;
+import javax.swing.text.Segment;
 import javax.swing.text.StyledDocument;
+import net.johnmcdonnell.netbeans.plugin.google.java.codeformatter.format.BackgroundFormatter;
+import net.johnmcdonnell.netbeans.plugin.google.java.codeformatter.format.DocumentVersion;
+import net.johnmcdonnell.netbeans.plugin.google.java.codeformatter.format.FormatScheduler.Priority;
+import net.johnmcdonnell.netbeans.plugin.google.java.codeformatter.format.FormattedStateIndex;
+import net.johnmcdonnell.netbeans.plugin.google.java.codeformatter.format.FormatterOptions;
 import net.johnmcdonnell.netbeans.plugin.google.java.codeformatter.format.GoogleCodeFormatter;
+import net.johnmcdonnell.netbeans.plugin.google.java.codeformatter.format.PreformatCache;
+import net.johnmcdonnell.netbeans.plugin.google.java.codeformatter.metrics.FormatMetrics;
+import net.johnmcdonnell.netbeans.plugin.google.java.codeformatter.metrics.FormatTrace;
+import net.johnmcdonnell.netbeans.plugin.google.java.codeformatter.metrics.FormatTrace.Phase;
+import net.johnmcdonnell.netbeans.plugin.google.java.codeformatter.metrics.FormatTrace.Trigger;
+import net.johnmcdonnell.netbeans.plugin.google.java.codeformatter.settings.FormatterSettings;
+import net.johnmcdonnell.netbeans.plugin.google.java.codeformatter.settings.SourceFilter;
+import org.netbeans.api.editor.EditorRegistry;
+import org.netbeans.api.editor.guards.GuardedSectionManager;
 import org.netbeans.api.editor.mimelookup.MimeRegistration;
-import org.netbeans.api.project.FileOwnerQuery;
-import org.netbeans.api.project.Project;
 import org.netbeans.modules.editor.NbEditorUtilities;
 import org.netbeans.spi.editor.document.OnSaveTask;
 import org.netbeans.spi.editor.document.OnSaveTask.Context;
 import org.netbeans.spi.editor.document.OnSaveTask.Factory;
-import org.netbeans.spi.project.AuxiliaryProperties;
+import org.openide.cookies.SaveCookie;
+import org.openide.filesystems.FileObject;
+import org.openide.loaders.DataObject;
+import org.openide.util.Exceptions;
 
 /** @author John McDonnell */
 public class FormatOnSaveTask implements OnSaveTask {
 
+  private static final Logger LOG = Logger.getLogger(FormatOnSaveTask.class.getName());
+
+  private static final String MIME_TYPE = "text/x-java";
+
+  private static final GoogleCodeFormatter FORMATTER =
+      new GoogleCodeFormatter().withEditorTimeout();
+
   private final Context context;
-  private final Boolean isCodeFormatterEnabled;
+  private final FileObject file;
+  private final GoogleCodeFormatter formatter;
+  private final boolean isBackgroundFormattingEnabled;
+  private final boolean isChangedLinesOnlyEnabled;
+  private final FormatTrace trace;
+  private volatile BackgroundFormatter.Job job;
 
-  private FormatOnSaveTask(Context context, Boolean isCodeFormatterEnabled) {
+  private FormatOnSaveTask(
+      Context context,
+      FileObject file,
+      FormatterOptions options,
+      boolean isBackgroundFormattingEnabled,
+      boolean isChangedLinesOnlyEnabled,
+      FormatTrace trace) {
     this.context = context;
-    this.isCodeFormatterEnabled = isCodeFormatterEnabled;
+    this.file = file;
+    this.formatter = FORMATTER.withOptions(options);
+    this.isBackgroundFormattingEnabled = isBackgroundFormattingEnabled;
+    this.isChangedLinesOnlyEnabled = isChangedLinesOnlyEnabled;
+    this.trace = trace;
   }
 
   @Override
   public void performTask() {
-    if (isCodeFormatterEnabled) {
-      GoogleCodeFormatter googleCodeFormatter = new GoogleCodeFormatter();
-      googleCodeFormatter.format((StyledDocument) context.getDocument());
+    final StyledDocument document = (StyledDocument) context.getDocument();
+    if (!isChangedLinesOnlyEnabled && applyPreformatted(document)) {
+      recordFormatted(document);
+      return;
+    }
+    if (isBackgroundFormattingEnabled) {
+      job =
+          new BackgroundFormatter(formatter)
+              .schedule(
+                  document,
+                  isChangedLinesOnlyEnabled,
+                  isFocused(document) ? Priority.FOCUSED : Priority.SAVE,
+                  trace,
+                  () -> {
+                    if (!isChangedLinesOnlyEnabled) {
+                      recordFormatted(document);
+                    }
+                    save(document);
+                  });
+    }
+    // Formatted here when the scheduler has too many documents in flight to take another
+    if (job == null) {
+      if (isChangedLinesOnlyEnabled) {
+        formatter.formatChangedLines(document, trace);
+      } else if (formatWholeDocument(document)) {
+        recordFormatted(document);
+      }
     }
   }
 
+  /**
+   * Formats the whole document on the calling thread.
+   *
+   * @return whether the document is now formatted, which it is not if it does not parse, formatting
+   *     it was skipped or ran past its time budget, or the changes could not be applied
+   */
+  private boolean formatWholeDocument(StyledDocument document) {
+    try {
+      formatter.formatDocument(document, trace);
+      return true;
+    } catch (FormatterException ex) {
+      LOG.log(Level.INFO, "Document left unformatted: {0}", ex.getMessage());
+      return false;
+    } catch (DiffException | BadLocationException ex) {
+      Exceptions.printStackTrace(ex);
+      return false;
+    }
+  }
+
+  /**
+   * Runs the rest of the save's tasks, counting the changes that all of them, this one included,
+   * make to the document in the trace.
+   */
   @Override
   public void runLocked(Runnable run) {
-    run.run();
+    final StyledDocument document = (StyledDocument) context.getDocument();
+    MutationCounter counter = new MutationCounter();
+    document.addDocumentListener(counter);
+    try {
+      run.run();
+    } finally {
+      document.removeDocumentListener(counter);
+    }
+    trace.setDocumentMutations(counter.count);
+    if (job == null) {
+      FormatMetrics.getDefault().record(trace);
+    }
   }
 
   @Override
   public boolean cancel() {
+    BackgroundFormatter.Job scheduledJob = job;
+    return scheduledJob != null && scheduledJob.cancel();
+  }
+
+  /**
+   * Applies the deltas computed by the {@link Preformatter} when editing the document last paused,
+   * if it has not been edited since.
+   *
+   * @return whether the document has been formatted
+   */
+  private boolean applyPreformatted(StyledDocument document) {
+    long start = System.nanoTime();
+    List<AbstractDelta<String>> deltas =
+        PreformatCache.getDefault()
+            .take(document, DocumentVersion.get(document), formatter.getOptions().fingerprint());
+    trace.addSince(Phase.READ, start);
+    if (deltas == null) {
+      return false;
+    }
+    try {
+      formatter.applyDeltas(document, deltas, trace);
+    } catch (BadLocationException ex) {
+      Exceptions.printStackTrace(ex);
+      return false;
+    }
     return true;
   }
 
-  @MimeRegistration(mimeType = "text/x-java", service = OnSaveTask.Factory.class, position = 1500)
+  /** Returns whether the document is shown in the editor that has, or last had, the focus. */
+  private static boolean isFocused(StyledDocument document) {
+    JTextComponent component = EditorRegistry.lastFocusedComponent();
+    return component != null && component.getDocument() == document;
+  }
+
+  /**
+   * Records in the {@link FormattedStateIndex} that the file is formatted. The modification time of
+   * the file is not known until it has been written, so the entry is matched by content hash the
+   * first time the file is checked.
+   */
+  private void recordFormatted(StyledDocument document) {
+    if (GuardedSectionManager.getInstance(document) != null) {
+      // Guarded sections are left as they are, so the document may not be fully formatted
+      return;
+    }
+    document.render(
+        () -> {
+          try {
+            Segment text = new Segment();
+            document.getText(0, document.getLength(), text);
+            FormattedStateIndex.getDefault()
+                .record(
+                    file.getPath(),
+                    FormattedStateIndex.UNKNOWN_MODIFICATION_TIME,
+                    text,
+                    formatter.getOptions().fingerprint(),
+                    true);
+          } catch (BadLocationException ex) {
+            Exceptions.printStackTrace(ex);
+          }
+        });
+  }
+
+  /**
+   * Saves the document again once the background changes have been applied. The resulting save
+   * formats the already formatted text, which finds nothing to change.
+   */
+  private static void save(StyledDocument document) {
+    DataObject dataObject = NbEditorUtilities.getDataObject(document);
+    SaveCookie saveCookie =
+        dataObject == null ? null : dataObject.getLookup().lookup(SaveCookie.class);
+    if (saveCookie != null) {
+      try {
+        saveCookie.save();
+      } catch (IOException ex) {
+        Exceptions.printStackTrace(ex);
+      }
+    }
+  }
+
+  /** Returns whether the start of the document marks it as generated. */
+  static boolean isGenerated(StyledDocument document) {
+    boolean[] generated = new boolean[1];
+    document.render(
+        () -> {
+          try {
+            Segment header = new Segment();
+            document.getText(0, Math.min(document.getLength(), SourceFilter.HEADER_LENGTH), header);
+            generated[0] = SourceFilter.isGenerated(header);
+          } catch (BadLocationException ex) {
+            Exceptions.printStackTrace(ex);
+          }
+        });
+    return generated[0];
+  }
+
+  /** Counts the changes made to a document. */
+  private static final class MutationCounter implements DocumentListener {
+
+    private int count;
+
+    @Override
+    public void insertUpdate(DocumentEvent e) {
+      count++;
+    }
+
+    @Override
+    public void removeUpdate(DocumentEvent e) {
+      count++;
+    }
+
+    @Override
+    public void changedUpdate(DocumentEvent e) {}
+  }
+
+  @MimeRegistration(mimeType = MIME_TYPE, service = OnSaveTask.Factory.class, position = 1500)
   public static final class FactoryImpl implements Factory {
 
     @Override
     public OnSaveTask createTask(Context context) {
+      final FormatTrace trace = new FormatTrace(Trigger.SAVE);
+      final long start = System.nanoTime();
       final StyledDocument styledDoc = (StyledDocument) context.getDocument();
-      Project project =
-          FileOwnerQuery.getOwner(NbEditorUtilities.getDataObject(styledDoc).getPrimaryFile());
-      AuxiliaryProperties auxiliaryProperties =
-          project.getLookup().lookup(AuxiliaryProperties.class);
+      DataObject dataObject = NbEditorUtilities.getDataObject(styledDoc);
+      if (dataObject == null) {
+        return null;
+      }
+      FormatterSettings settings = FormatterSettings.forFile(dataObject.getPrimaryFile());
+      trace.addSince(Phase.LOOKUP, start);
+      if (!settings.isEnabled()) {
+        return null;
+      }
+      FileObject file = dataObject.getPrimaryFile();
+      if (settings.getFilter().isExcluded(file)) {
+        FormatMetrics.getDefault().recordSkipped(file.getPath(), false);
+        return null;
+      }
+      if (isGenerated(styledDoc)) {
+        FormatMetrics.getDefault().recordSkipped(file.getPath(), true);
+        return null;
+      }
       return new FormatOnSaveTask(
           context,
-          Boolean.valueOf(auxiliaryProperties.get("isGoogleJavaCodeFormatterEnabled", true)));
+          file,
+          settings.getOptions(),
+          settings.isBackgroundEnabled(),
+          settings.isChangedLinesOnly(),
+          trace);
     }
   }
 }
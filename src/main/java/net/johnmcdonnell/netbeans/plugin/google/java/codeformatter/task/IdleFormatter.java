@@ -0,0 +1,191 @@
+/*
+ * Copyright 2019 John McDonnell.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.johnmcdonnell.netbeans.plugin.google.java.codeformatter.task;
+
+import java.beans.PropertyChangeEvent;
+import java.beans.PropertyChangeListener;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
+import javax.swing.text.Document;
+import javax.swing.text.JTextComponent;
+import javax.swing.text.StyledDocument;
+import net.johnmcdonnell.netbeans.plugin.google.java.codeformatter.format.BackgroundFormatter;
+import net.johnmcdonnell.netbeans.plugin.google.java.codeformatter.format.DirtyRegionTracker;
+import net.johnmcdonnell.netbeans.plugin.google.java.codeformatter.format.DocumentVersion;
+import net.johnmcdonnell.netbeans.plugin.google.java.codeformatter.format.FormatScheduler.Priority;
+import net.johnmcdonnell.netbeans.plugin.google.java.codeformatter.format.GoogleCodeFormatter;
+import net.johnmcdonnell.netbeans.plugin.google.java.codeformatter.metrics.FormatMetrics;
+import net.johnmcdonnell.netbeans.plugin.google.java.codeformatter.metrics.FormatTrace;
+import net.johnmcdonnell.netbeans.plugin.google.java.codeformatter.metrics.FormatTrace.Trigger;
+import net.johnmcdonnell.netbeans.plugin.google.java.codeformatter.settings.FormatterSettings;
+import org.netbeans.api.editor.EditorRegistry;
+import org.netbeans.modules.editor.NbEditorUtilities;
+import org.openide.filesystems.FileObject;
+import org.openide.loaders.DataObject;
+import org.openide.util.RequestProcessor;
+
+/**
+ * Formats the lines edited in a Java document once typing has paused, for projects that enable it,
+ * so that the text is usually already formatted by the time it is saved. Every edit pushes the
+ * format back, so a burst of typing is formatted once, after it ends. The result is applied only if
+ * the document has not been edited again while it was being formatted.
+ *
+ * <p>Only documents whose project enables it are watched, so that other editors pay nothing for
+ * their edits. Formatting waits until the edited lines are known: a document already edited when it
+ * is first watched is left to the next save.
+ *
+ * @author John McDonnell
+ */
+public final class IdleFormatter implements DocumentListener {
+
+  /**
+   * The system property setting how long typing has to pause before formatting, in milliseconds.
+   */
+  public static final String DELAY_PROPERTY = FormatMetrics.LOGGER_NAME + ".idleDelayMillis";
+
+  private static final int DELAY_MILLIS = Integer.getInteger(DELAY_PROPERTY, 1000);
+
+  private static final String JAVA_MIME_TYPE = "text/x-java";
+
+  private static final RequestProcessor RP = new RequestProcessor(IdleFormatter.class);
+  private static final GoogleCodeFormatter FORMATTER = new GoogleCodeFormatter().withEditorTimeout();
+
+  private static final PropertyChangeListener REGISTRY_LISTENER =
+      evt -> {
+        if (EditorRegistry.FOCUS_GAINED_PROPERTY.equals(evt.getPropertyName())) {
+          attach(EditorRegistry.focusedComponent());
+        }
+      };
+
+  private final StyledDocument document;
+  private final DataObject dataObject;
+  private final RequestProcessor.Task task;
+  private final PropertyChangeListener savedListener = this::savedChanged;
+  private volatile long formattedVersion = -1;
+
+  private IdleFormatter(StyledDocument document, DataObject dataObject) {
+    this.document = document;
+    this.dataObject = dataObject;
+    this.task = RP.create(this::formatIfIdle);
+  }
+
+  /** Starts watching the Java editors that gain focus. */
+  public static void install() {
+    EditorRegistry.addPropertyChangeListener(REGISTRY_LISTENER);
+    attach(EditorRegistry.lastFocusedComponent());
+  }
+
+  private static void attach(JTextComponent component) {
+    if (component == null) {
+      return;
+    }
+    Document document = component.getDocument();
+    if (!(document instanceof StyledDocument)
+        || !JAVA_MIME_TYPE.equals(document.getProperty("mimeType"))) {
+      return;
+    }
+    IdleFormatter attached = (IdleFormatter) document.getProperty(IdleFormatter.class);
+    if (!isEnabled((StyledDocument) document)) {
+      if (attached != null) {
+        attached.detach();
+      }
+      return;
+    }
+    DataObject dataObject = NbEditorUtilities.getDataObject(document);
+    if (attached != null || dataObject == null) {
+      return;
+    }
+    IdleFormatter idleFormatter = new IdleFormatter((StyledDocument) document, dataObject);
+    document.putProperty(IdleFormatter.class, idleFormatter);
+    idleFormatter.trackFromSavedText();
+    document.addDocumentListener(idleFormatter);
+    dataObject.addPropertyChangeListener(idleFormatter.savedListener);
+  }
+
+  /** Returns whether the project of the document's file has it formatted when typing pauses. */
+  private static boolean isEnabled(StyledDocument document) {
+    FileObject file = NbEditorUtilities.getFileObject(document);
+    if (file == null) {
+      return false;
+    }
+    FormatterSettings settings = FormatterSettings.forFile(file);
+    return settings.isEnabled()
+        && settings.isIdleEnabled()
+        && !settings.getFilter().isExcluded(file)
+        && !FormatOnSaveTask.isGenerated(document);
+  }
+
+  /**
+   * Tracks the edited lines from now on, so that only those are formatted. A tracker attached only
+   * now has missed the edits made so far, so it starts from the current text once that is the saved
+   * text.
+   */
+  private void trackFromSavedText() {
+    DirtyRegionTracker tracker = DirtyRegionTracker.get(document);
+    if (!tracker.isComplete() && !dataObject.isModified()) {
+      tracker.reset();
+    }
+  }
+
+  private void savedChanged(PropertyChangeEvent evt) {
+    if (DataObject.PROP_MODIFIED.equals(evt.getPropertyName())
+        && Boolean.FALSE.equals(evt.getNewValue())) {
+      trackFromSavedText();
+    }
+  }
+
+  private void detach() {
+    dataObject.removePropertyChangeListener(savedListener);
+    document.removeDocumentListener(this);
+    document.putProperty(IdleFormatter.class, null);
+    task.cancel();
+  }
+
+  @Override
+  public void insertUpdate(DocumentEvent e) {
+    task.schedule(DELAY_MILLIS);
+  }
+
+  @Override
+  public void removeUpdate(DocumentEvent e) {
+    task.schedule(DELAY_MILLIS);
+  }
+
+  @Override
+  public void changedUpdate(DocumentEvent e) {
+    // Attribute changes do not change the text
+  }
+
+  private void formatIfIdle() {
+    // The edits made by the last format reschedule this task too, but leave nothing to format
+    if (DocumentVersion.get(document) == formattedVersion) {
+      return;
+    }
+    // The edits made before the document was watched are only known once it has been saved
+    if (!DirtyRegionTracker.get(document).isComplete() || !isEnabled(document)) {
+      return;
+    }
+    FileObject file = NbEditorUtilities.getFileObject(document);
+    FormatterSettings settings = FormatterSettings.forFile(file);
+    new BackgroundFormatter(FORMATTER.withOptions(settings.getOptions()))
+        .schedule(
+            document,
+            true,
+            Priority.IDLE,
+            new FormatTrace(Trigger.IDLE),
+            () -> formattedVersion = DocumentVersion.get(document));
+  }
+}
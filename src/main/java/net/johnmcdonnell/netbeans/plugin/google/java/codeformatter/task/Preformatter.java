@@ -0,0 +1,185 @@
+/*
+ * Copyright 2019 John McDonnell.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.johnmcdonnell.netbeans.plugin.google.java.codeformatter.task;
+
+import java.beans.PropertyChangeListener;
+import java.util.function.Function;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
+import javax.swing.text.Document;
+import javax.swing.text.JTextComponent;
+import javax.swing.text.StyledDocument;
+import net.johnmcdonnell.netbeans.plugin.google.java.codeformatter.format.BackgroundFormatter;
+import net.johnmcdonnell.netbeans.plugin.google.java.codeformatter.format.GoogleCodeFormatter;
+import net.johnmcdonnell.netbeans.plugin.google.java.codeformatter.format.PreformatCache;
+import net.johnmcdonnell.netbeans.plugin.google.java.codeformatter.settings.FormatterSettings;
+import org.netbeans.api.editor.EditorRegistry;
+import org.netbeans.modules.editor.NbEditorUtilities;
+import org.openide.filesystems.FileObject;
+import org.openide.util.RequestProcessor;
+
+/**
+ * Formats Java documents in the background when they are shown in an editor, and again whenever
+ * editing pauses, keeping the resulting deltas in the {@link PreformatCache} for the version of the
+ * document they were computed from. When the document is saved without having been edited since,
+ * {@link FormatOnSaveTask} applies them without formatting on the save path. An edit drops the kept
+ * deltas, and the kept deltas are dropped when the last editor of the document closes.
+ *
+ * @author John McDonnell
+ */
+public final class Preformatter implements DocumentListener {
+
+  private static final int DELAY_MILLIS = 500;
+
+  private static final String JAVA_MIME_TYPE = "text/x-java";
+
+  private static final RequestProcessor RP =
+      new RequestProcessor(Preformatter.class.getName(), 1, true);
+  private static final GoogleCodeFormatter FORMATTER =
+      new GoogleCodeFormatter().withEditorTimeout();
+
+  private static final PropertyChangeListener REGISTRY_LISTENER =
+      evt -> {
+        if (EditorRegistry.FOCUS_GAINED_PROPERTY.equals(evt.getPropertyName())) {
+          attach(EditorRegistry.focusedComponent());
+        } else if (EditorRegistry.COMPONENT_REMOVED_PROPERTY.equals(evt.getPropertyName())
+            && evt.getOldValue() instanceof JTextComponent) {
+          detach(((JTextComponent) evt.getOldValue()).getDocument());
+        }
+      };
+
+  private final StyledDocument document;
+  private final Function<StyledDocument, GoogleCodeFormatter> formatters;
+  private final PreformatCache cache;
+  private final int delayMillis;
+  private final RequestProcessor.Task task;
+
+  /**
+   * @param formatters returns the formatter a save of the document would use, or {@code null} if a
+   *     save would not use deltas computed ahead of it
+   */
+  Preformatter(
+      StyledDocument document,
+      Function<StyledDocument, GoogleCodeFormatter> formatters,
+      PreformatCache cache,
+      int delayMillis) {
+    this.document = document;
+    this.formatters = formatters;
+    this.cache = cache;
+    this.delayMillis = delayMillis;
+    this.task = RP.create(this::preformat);
+  }
+
+  /** Starts watching for Java editors being opened and closed. */
+  public static void install() {
+    EditorRegistry.addPropertyChangeListener(REGISTRY_LISTENER);
+    attach(EditorRegistry.lastFocusedComponent());
+  }
+
+  private static void attach(JTextComponent component) {
+    if (component == null) {
+      return;
+    }
+    Document document = component.getDocument();
+    if (!(document instanceof StyledDocument)
+        || !JAVA_MIME_TYPE.equals(document.getProperty("mimeType"))
+        || document.getProperty(Preformatter.class) != null) {
+      return;
+    }
+    Preformatter preformatter =
+        new Preformatter(
+            (StyledDocument) document,
+            Preformatter::formatterFor,
+            PreformatCache.getDefault(),
+            DELAY_MILLIS);
+    document.putProperty(Preformatter.class, preformatter);
+    preformatter.start();
+  }
+
+  private static void detach(Document document) {
+    for (JTextComponent component : EditorRegistry.componentList()) {
+      if (component.getDocument() == document) {
+        return;
+      }
+    }
+    Preformatter preformatter = (Preformatter) document.getProperty(Preformatter.class);
+    if (preformatter != null) {
+      preformatter.stop();
+      document.putProperty(Preformatter.class, null);
+    }
+  }
+
+  /** Formats the document as it is now, and again each time editing it pauses. */
+  void start() {
+    document.addDocumentListener(this);
+    task.schedule(delayMillis);
+  }
+
+  void stop() {
+    document.removeDocumentListener(this);
+    task.cancel();
+    cache.remove(document);
+  }
+
+  /** Blocks until the pending format of the document, if any, has finished. */
+  void waitFinished() {
+    task.waitFinished();
+  }
+
+  @Override
+  public void insertUpdate(DocumentEvent e) {
+    edited();
+  }
+
+  @Override
+  public void removeUpdate(DocumentEvent e) {
+    edited();
+  }
+
+  @Override
+  public void changedUpdate(DocumentEvent e) {
+    // Attribute changes do not change the text
+  }
+
+  /** Drops the deltas of the previous version, and formats again once the edits pause. */
+  private void edited() {
+    cache.remove(document);
+    task.schedule(delayMillis);
+  }
+
+  private void preformat() {
+    GoogleCodeFormatter formatter = formatters.apply(document);
+    if (formatter != null) {
+      new BackgroundFormatter(formatter).preformat(document, cache);
+    }
+  }
+
+  private static GoogleCodeFormatter formatterFor(StyledDocument document) {
+    FileObject file = NbEditorUtilities.getFileObject(document);
+    if (file == null) {
+      return null;
+    }
+    FormatterSettings settings = FormatterSettings.forFile(file);
+    // Saves that only format the changed lines compute their ranges when saving
+    if (!settings.isEnabled()
+        || settings.isChangedLinesOnly()
+        || settings.getFilter().isExcluded(file)
+        || FormatOnSaveTask.isGenerated(document)) {
+      return null;
+    }
+    return FORMATTER.withOptions(settings.getOptions());
+  }
+}
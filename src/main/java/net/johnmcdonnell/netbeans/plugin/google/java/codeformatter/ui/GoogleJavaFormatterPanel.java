@@ -20,8 +20,9 @@ import java.awt.Cursor;
 import java.awt.event.ActionEvent;
 import java.net.MalformedURLException;
 import java.net.URL;
+import net.johnmcdonnell.netbeans.plugin.google.java.codeformatter.settings.FormatterSettings;
+import net.johnmcdonnell.netbeans.plugin.google.java.codeformatter.settings.SourceFilter;
 import org.netbeans.api.project.Project;
-import org.netbeans.spi.project.AuxiliaryProperties;
 import org.netbeans.spi.project.ui.support.ProjectCustomizer.Category;
 import org.openide.awt.HtmlBrowser;
 import org.openide.util.Exceptions;
@@ -32,16 +33,25 @@ import org.openide.util.Exceptions;
  */
 public class GoogleJavaFormatterPanel extends javax.swing.JPanel {
     
-    private final AuxiliaryProperties auxiliaryProperties;
+    private final Project project;
     
 
     GoogleJavaFormatterPanel(Category category, Project project) {
         initComponents();
         
-        auxiliaryProperties = project.getLookup().lookup(AuxiliaryProperties.class);
+        this.project = project;
         
-        String isGoogleJavaCodeFormatterEnabled = auxiliaryProperties.get("isGoogleJavaCodeFormatterEnabled", true);
-        chkEnableGoogleStyleFormatter.setSelected(Boolean.parseBoolean(isGoogleJavaCodeFormatterEnabled));
+        chkEnableGoogleStyleFormatter.setSelected(FormatterSettings.load(project, FormatterSettings.ENABLED));
+        chkFormatInBackground.setSelected(FormatterSettings.load(project, FormatterSettings.BACKGROUND_ENABLED));
+        chkFormatChangedLinesOnly.setSelected(FormatterSettings.load(project, FormatterSettings.CHANGED_LINES_ONLY));
+        chkAospStyle.setSelected(FormatterSettings.load(project, FormatterSettings.AOSP_STYLE));
+        chkKeepUnusedImports.setSelected(FormatterSettings.load(project, FormatterSettings.SKIP_REMOVING_UNUSED_IMPORTS));
+        chkKeepImportOrder.setSelected(FormatterSettings.load(project, FormatterSettings.SKIP_SORTING_IMPORTS));
+        chkFormatWhileIdle.setSelected(FormatterSettings.load(project, FormatterSettings.IDLE_ENABLED));
+        String includes = FormatterSettings.loadText(project, FormatterSettings.INCLUDES);
+        txtIncludes.setText(includes == null ? "" : includes);
+        String excludes = FormatterSettings.loadText(project, FormatterSettings.EXCLUDES);
+        txtExcludes.setText(excludes == null ? SourceFilter.DEFAULT_EXCLUDES : excludes);
 
         btnHyperlinkToStyleGuide.setCursor(Cursor.getPredefinedCursor(Cursor.HAND_CURSOR));
         btnHyperlinkToStyleGuide.addActionListener((ActionEvent e) -> {
@@ -64,6 +74,16 @@ public class GoogleJavaFormatterPanel extends javax.swing.JPanel {
         java.awt.GridBagConstraints gridBagConstraints;
 
         chkEnableGoogleStyleFormatter = new javax.swing.JCheckBox();
+        chkFormatInBackground = new javax.swing.JCheckBox();
+        chkFormatChangedLinesOnly = new javax.swing.JCheckBox();
+        chkAospStyle = new javax.swing.JCheckBox();
+        chkKeepUnusedImports = new javax.swing.JCheckBox();
+        chkKeepImportOrder = new javax.swing.JCheckBox();
+        chkFormatWhileIdle = new javax.swing.JCheckBox();
+        lblIncludes = new javax.swing.JLabel();
+        txtIncludes = new javax.swing.JTextField();
+        lblExcludes = new javax.swing.JLabel();
+        txtExcludes = new javax.swing.JTextField();
         btnHyperlinkToStyleGuide = new javax.swing.JButton();
 
         setLayout(new java.awt.GridBagLayout());
@@ -82,13 +102,145 @@ public class GoogleJavaFormatterPanel extends javax.swing.JPanel {
         gridBagConstraints.insets = new java.awt.Insets(6, 6, 6, 6);
         add(chkEnableGoogleStyleFormatter, gridBagConstraints);
 
+        org.openide.awt.Mnemonics.setLocalizedText(chkFormatInBackground, org.openide.util.NbBundle.getMessage(GoogleJavaFormatterPanel.class, "GoogleJavaFormatterPanel.chkFormatInBackground.text")); // NOI18N
+        chkFormatInBackground.addActionListener(new java.awt.event.ActionListener() {
+            public void actionPerformed(java.awt.event.ActionEvent evt) {
+                chkFormatInBackgroundActionPerformed(evt);
+            }
+        });
+        gridBagConstraints = new java.awt.GridBagConstraints();
+        gridBagConstraints.gridx = 0;
+        gridBagConstraints.gridy = 1;
+        gridBagConstraints.anchor = java.awt.GridBagConstraints.NORTHWEST;
+        gridBagConstraints.weightx = 1.0;
+        gridBagConstraints.insets = new java.awt.Insets(0, 24, 6, 6);
+        add(chkFormatInBackground, gridBagConstraints);
+
+        org.openide.awt.Mnemonics.setLocalizedText(chkFormatChangedLinesOnly, org.openide.util.NbBundle.getMessage(GoogleJavaFormatterPanel.class, "GoogleJavaFormatterPanel.chkFormatChangedLinesOnly.text")); // NOI18N
+        chkFormatChangedLinesOnly.addActionListener(new java.awt.event.ActionListener() {
+            public void actionPerformed(java.awt.event.ActionEvent evt) {
+                chkFormatChangedLinesOnlyActionPerformed(evt);
+            }
+        });
+        gridBagConstraints = new java.awt.GridBagConstraints();
+        gridBagConstraints.gridx = 0;
+        gridBagConstraints.gridy = 2;
+        gridBagConstraints.anchor = java.awt.GridBagConstraints.NORTHWEST;
+        gridBagConstraints.weightx = 1.0;
+        gridBagConstraints.insets = new java.awt.Insets(0, 24, 6, 6);
+        add(chkFormatChangedLinesOnly, gridBagConstraints);
+
+        org.openide.awt.Mnemonics.setLocalizedText(chkAospStyle, org.openide.util.NbBundle.getMessage(GoogleJavaFormatterPanel.class, "GoogleJavaFormatterPanel.chkAospStyle.text")); // NOI18N
+        chkAospStyle.addActionListener(new java.awt.event.ActionListener() {
+            public void actionPerformed(java.awt.event.ActionEvent evt) {
+                chkAospStyleActionPerformed(evt);
+            }
+        });
+        gridBagConstraints = new java.awt.GridBagConstraints();
+        gridBagConstraints.gridx = 0;
+        gridBagConstraints.gridy = 3;
+        gridBagConstraints.anchor = java.awt.GridBagConstraints.NORTHWEST;
+        gridBagConstraints.weightx = 1.0;
+        gridBagConstraints.insets = new java.awt.Insets(0, 24, 6, 6);
+        add(chkAospStyle, gridBagConstraints);
+
+        org.openide.awt.Mnemonics.setLocalizedText(chkKeepUnusedImports, org.openide.util.NbBundle.getMessage(GoogleJavaFormatterPanel.class, "GoogleJavaFormatterPanel.chkKeepUnusedImports.text")); // NOI18N
+        chkKeepUnusedImports.addActionListener(new java.awt.event.ActionListener() {
+            public void actionPerformed(java.awt.event.ActionEvent evt) {
+                chkKeepUnusedImportsActionPerformed(evt);
+            }
+        });
+        gridBagConstraints = new java.awt.GridBagConstraints();
+        gridBagConstraints.gridx = 0;
+        gridBagConstraints.gridy = 4;
+        gridBagConstraints.anchor = java.awt.GridBagConstraints.NORTHWEST;
+        gridBagConstraints.weightx = 1.0;
+        gridBagConstraints.insets = new java.awt.Insets(0, 24, 6, 6);
+        add(chkKeepUnusedImports, gridBagConstraints);
+
+        org.openide.awt.Mnemonics.setLocalizedText(chkKeepImportOrder, org.openide.util.NbBundle.getMessage(GoogleJavaFormatterPanel.class, "GoogleJavaFormatterPanel.chkKeepImportOrder.text")); // NOI18N
+        chkKeepImportOrder.addActionListener(new java.awt.event.ActionListener() {
+            public void actionPerformed(java.awt.event.ActionEvent evt) {
+                chkKeepImportOrderActionPerformed(evt);
+            }
+        });
+        gridBagConstraints = new java.awt.GridBagConstraints();
+        gridBagConstraints.gridx = 0;
+        gridBagConstraints.gridy = 5;
+        gridBagConstraints.anchor = java.awt.GridBagConstraints.NORTHWEST;
+        gridBagConstraints.weightx = 1.0;
+        gridBagConstraints.insets = new java.awt.Insets(0, 24, 6, 6);
+        add(chkKeepImportOrder, gridBagConstraints);
+
+        org.openide.awt.Mnemonics.setLocalizedText(chkFormatWhileIdle, org.openide.util.NbBundle.getMessage(GoogleJavaFormatterPanel.class, "GoogleJavaFormatterPanel.chkFormatWhileIdle.text")); // NOI18N
+        chkFormatWhileIdle.addActionListener(new java.awt.event.ActionListener() {
+            public void actionPerformed(java.awt.event.ActionEvent evt) {
+                chkFormatWhileIdleActionPerformed(evt);
+            }
+        });
+        gridBagConstraints = new java.awt.GridBagConstraints();
+        gridBagConstraints.gridx = 0;
+        gridBagConstraints.gridy = 6;
+        gridBagConstraints.anchor = java.awt.GridBagConstraints.NORTHWEST;
+        gridBagConstraints.weightx = 1.0;
+        gridBagConstraints.insets = new java.awt.Insets(0, 24, 6, 6);
+        add(chkFormatWhileIdle, gridBagConstraints);
+
+        lblIncludes.setLabelFor(txtIncludes);
+        org.openide.awt.Mnemonics.setLocalizedText(lblIncludes, org.openide.util.NbBundle.getMessage(GoogleJavaFormatterPanel.class, "GoogleJavaFormatterPanel.lblIncludes.text")); // NOI18N
+        gridBagConstraints = new java.awt.GridBagConstraints();
+        gridBagConstraints.gridx = 0;
+        gridBagConstraints.gridy = 7;
+        gridBagConstraints.anchor = java.awt.GridBagConstraints.NORTHWEST;
+        gridBagConstraints.weightx = 1.0;
+        gridBagConstraints.insets = new java.awt.Insets(0, 24, 2, 6);
+        add(lblIncludes, gridBagConstraints);
+
+        txtIncludes.addFocusListener(new java.awt.event.FocusAdapter() {
+            public void focusLost(java.awt.event.FocusEvent evt) {
+                txtIncludesFocusLost(evt);
+            }
+        });
+        gridBagConstraints = new java.awt.GridBagConstraints();
+        gridBagConstraints.gridx = 0;
+        gridBagConstraints.gridy = 8;
+        gridBagConstraints.fill = java.awt.GridBagConstraints.HORIZONTAL;
+        gridBagConstraints.anchor = java.awt.GridBagConstraints.NORTHWEST;
+        gridBagConstraints.weightx = 1.0;
+        gridBagConstraints.insets = new java.awt.Insets(0, 24, 6, 6);
+        add(txtIncludes, gridBagConstraints);
+
+        lblExcludes.setLabelFor(txtExcludes);
+        org.openide.awt.Mnemonics.setLocalizedText(lblExcludes, org.openide.util.NbBundle.getMessage(GoogleJavaFormatterPanel.class, "GoogleJavaFormatterPanel.lblExcludes.text")); // NOI18N
+        gridBagConstraints = new java.awt.GridBagConstraints();
+        gridBagConstraints.gridx = 0;
+        gridBagConstraints.gridy = 9;
+        gridBagConstraints.anchor = java.awt.GridBagConstraints.NORTHWEST;
+        gridBagConstraints.weightx = 1.0;
+        gridBagConstraints.insets = new java.awt.Insets(0, 24, 2, 6);
+        add(lblExcludes, gridBagConstraints);
+
+        txtExcludes.addFocusListener(new java.awt.event.FocusAdapter() {
+            public void focusLost(java.awt.event.FocusEvent evt) {
+                txtExcludesFocusLost(evt);
+            }
+        });
+        gridBagConstraints = new java.awt.GridBagConstraints();
+        gridBagConstraints.gridx = 0;
+        gridBagConstraints.gridy = 10;
+        gridBagConstraints.fill = java.awt.GridBagConstraints.HORIZONTAL;
+        gridBagConstraints.anchor = java.awt.GridBagConstraints.NORTHWEST;
+        gridBagConstraints.weightx = 1.0;
+        gridBagConstraints.insets = new java.awt.Insets(0, 24, 6, 6);
+        add(txtExcludes, gridBagConstraints);
+
         org.openide.awt.Mnemonics.setLocalizedText(btnHyperlinkToStyleGuide, org.openide.util.NbBundle.getMessage(GoogleJavaFormatterPanel.class, "GoogleJavaFormatterPanel.btnHyperlinkToStyleGuide.text")); // NOI18N
         btnHyperlinkToStyleGuide.setBorderPainted(false);
         btnHyperlinkToStyleGuide.setContentAreaFilled(false);
         btnHyperlinkToStyleGuide.setHorizontalTextPosition(javax.swing.SwingConstants.LEFT);
         gridBagConstraints = new java.awt.GridBagConstraints();
         gridBagConstraints.gridx = 0;
-        gridBagConstraints.gridy = 1;
+        gridBagConstraints.gridy = 11;
         gridBagConstraints.gridwidth = java.awt.GridBagConstraints.REMAINDER;
         gridBagConstraints.anchor = java.awt.GridBagConstraints.NORTHWEST;
         gridBagConstraints.weighty = 1.0;
@@ -96,12 +248,54 @@ public class GoogleJavaFormatterPanel extends javax.swing.JPanel {
     }// </editor-fold>//GEN-END:initComponents
 
     private void chkEnableGoogleStyleFormatterActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_chkEnableGoogleStyleFormatterActionPerformed
-        auxiliaryProperties.put("isGoogleJavaCodeFormatterEnabled", chkEnableGoogleStyleFormatter.isSelected() ? "true" : "false", true);
+        FormatterSettings.store(project, FormatterSettings.ENABLED, chkEnableGoogleStyleFormatter.isSelected());
     }//GEN-LAST:event_chkEnableGoogleStyleFormatterActionPerformed
  
     
+    private void chkFormatInBackgroundActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_chkFormatInBackgroundActionPerformed
+        FormatterSettings.store(project, FormatterSettings.BACKGROUND_ENABLED, chkFormatInBackground.isSelected());
+    }//GEN-LAST:event_chkFormatInBackgroundActionPerformed
+
+    private void chkFormatChangedLinesOnlyActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_chkFormatChangedLinesOnlyActionPerformed
+        FormatterSettings.store(project, FormatterSettings.CHANGED_LINES_ONLY, chkFormatChangedLinesOnly.isSelected());
+    }//GEN-LAST:event_chkFormatChangedLinesOnlyActionPerformed
+
+    private void chkAospStyleActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_chkAospStyleActionPerformed
+        FormatterSettings.store(project, FormatterSettings.AOSP_STYLE, chkAospStyle.isSelected());
+    }//GEN-LAST:event_chkAospStyleActionPerformed
+
+    private void chkKeepUnusedImportsActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_chkKeepUnusedImportsActionPerformed
+        FormatterSettings.store(project, FormatterSettings.SKIP_REMOVING_UNUSED_IMPORTS, chkKeepUnusedImports.isSelected());
+    }//GEN-LAST:event_chkKeepUnusedImportsActionPerformed
+
+    private void chkKeepImportOrderActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_chkKeepImportOrderActionPerformed
+        FormatterSettings.store(project, FormatterSettings.SKIP_SORTING_IMPORTS, chkKeepImportOrder.isSelected());
+    }//GEN-LAST:event_chkKeepImportOrderActionPerformed
+
+    private void chkFormatWhileIdleActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_chkFormatWhileIdleActionPerformed
+        FormatterSettings.store(project, FormatterSettings.IDLE_ENABLED, chkFormatWhileIdle.isSelected());
+    }//GEN-LAST:event_chkFormatWhileIdleActionPerformed
+
+    private void txtIncludesFocusLost(java.awt.event.FocusEvent evt) {//GEN-FIRST:event_txtIncludesFocusLost
+        FormatterSettings.store(project, FormatterSettings.INCLUDES, txtIncludes.getText().trim());
+    }//GEN-LAST:event_txtIncludesFocusLost
+
+    private void txtExcludesFocusLost(java.awt.event.FocusEvent evt) {//GEN-FIRST:event_txtExcludesFocusLost
+        FormatterSettings.store(project, FormatterSettings.EXCLUDES, txtExcludes.getText().trim());
+    }//GEN-LAST:event_txtExcludesFocusLost
+
     // Variables declaration - do not modify//GEN-BEGIN:variables
     private javax.swing.JButton btnHyperlinkToStyleGuide;
     private javax.swing.JCheckBox chkEnableGoogleStyleFormatter;
+    private javax.swing.JCheckBox chkFormatInBackground;
+    private javax.swing.JCheckBox chkFormatChangedLinesOnly;
+    private javax.swing.JCheckBox chkAospStyle;
+    private javax.swing.JCheckBox chkKeepUnusedImports;
+    private javax.swing.JCheckBox chkKeepImportOrder;
+    private javax.swing.JCheckBox chkFormatWhileIdle;
+    private javax.swing.JLabel lblIncludes;
+    private javax.swing.JTextField txtIncludes;
+    private javax.swing.JLabel lblExcludes;
+    private javax.swing.JTextField txtExcludes;
     // End of variables declaration//GEN-END:variables
 }
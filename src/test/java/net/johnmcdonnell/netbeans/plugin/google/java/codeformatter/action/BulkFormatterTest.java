@@ -0,0 +1,225 @@
+/*
+ * Copyright 2019 John McDonnell.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.johnmcdonnell.netbeans.plugin.google.java.codeformatter.action;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.DefaultStyledDocument;
+import javax.swing.text.StyledDocument;
+import net.johnmcdonnell.netbeans.plugin.google.java.codeformatter.format.FormattedContentCache;
+import net.johnmcdonnell.netbeans.plugin.google.java.codeformatter.format.FormattedStateIndex;
+import net.johnmcdonnell.netbeans.plugin.google.java.codeformatter.format.FormatterOptions;
+import net.johnmcdonnell.netbeans.plugin.google.java.codeformatter.format.GoogleCodeFormatter;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import org.junit.jupiter.api.Test;
+import org.openide.filesystems.FileObject;
+import org.openide.filesystems.FileUtil;
+
+/**
+ *
+ * @author John McDonnell
+ */
+public class BulkFormatterTest {
+
+    @Test
+    public void testFormatsJavaFilesBelowRoot() throws IOException, InterruptedException {
+        // Given
+        FileObject root = FileUtil.createMemoryFileSystem().getRoot();
+        FileObject unformatted = createFile(root, "test/Unformatted.java", "package test;\nclass Unformatted {   }\n");
+        FileObject formatted = createFile(root, "test/Formatted.java", "package test;\n\nclass Formatted {}\n");
+        FileObject notJava = createFile(root, "test/notes.txt", "class   NotJava {   }\n");
+        BulkFormatter bulkFormatter = new BulkFormatter(new GoogleCodeFormatter(new FormattedContentCache(10)), file -> StandardCharsets.UTF_8, createIndex());
+
+        // When
+        BulkFormatter.Result result = bulkFormatter.format(Collections.singleton(root), null);
+
+        // Then
+        assertEquals(2, result.getFileCount());
+        assertEquals(2, result.getFormattedCount());
+        assertEquals(Collections.singletonList(unformatted), result.getChangedFiles());
+        assertEquals("package test;\n\nclass Unformatted {}\n", unformatted.asText("UTF-8"));
+        assertEquals("package test;\n\nclass Formatted {}\n", formatted.asText("UTF-8"));
+        assertEquals("class   NotJava {   }\n", notJava.asText("UTF-8"));
+        assertFalse(result.isCancelled());
+    }
+
+    @Test
+    public void testFilesThatCannotBeParsedAreReported() throws IOException, InterruptedException {
+        // Given
+        FileObject root = FileUtil.createMemoryFileSystem().getRoot();
+        FileObject broken = createFile(root, "Broken.java", "class Broken {\n");
+        BulkFormatter bulkFormatter = new BulkFormatter(new GoogleCodeFormatter(new FormattedContentCache(10)), file -> StandardCharsets.UTF_8, createIndex());
+
+        // When
+        BulkFormatter.Result result = bulkFormatter.format(Collections.singleton(root), null);
+
+        // Then
+        assertEquals(Collections.singletonList(broken), result.getFailedFiles());
+        assertEquals("class Broken {\n", broken.asText("UTF-8"));
+    }
+
+    @Test
+    public void testFormattedFilesAreRecordedInIndex() throws IOException, InterruptedException {
+        // Given
+        FileObject root = FileUtil.createMemoryFileSystem().getRoot();
+        FileObject unformatted = createFile(root, "Unformatted.java", "class Unformatted {   }\n");
+        FormattedStateIndex index = createIndex();
+        BulkFormatter bulkFormatter = new BulkFormatter(new GoogleCodeFormatter(new FormattedContentCache(10)), file -> StandardCharsets.UTF_8, index);
+
+        // When
+        bulkFormatter.format(Collections.singleton(root), null);
+
+        // Then
+        assertEquals(Boolean.TRUE, index.isFormatted(unformatted.getPath(), unformatted.lastModified().getTime(),
+                FormatterOptions.DEFAULT.fingerprint()));
+    }
+
+    @Test
+    public void testOpenDocumentsThatCannotBeParsedAreReported()
+            throws IOException, InterruptedException, BadLocationException {
+        // Given
+        FileObject root = FileUtil.createMemoryFileSystem().getRoot();
+        FileObject broken = createFile(root, "Broken.java", "class Broken {}\n");
+        StyledDocument document = createDocument("class Broken {\n");
+        FormattedStateIndex index = createIndex();
+        BulkFormatter bulkFormatter = new BulkFormatter(new GoogleCodeFormatter(new FormattedContentCache(10)), file -> StandardCharsets.UTF_8, index);
+
+        // When
+        BulkFormatter.Result result = bulkFormatter.format(Collections.singleton(root), null,
+                Collections.singletonMap(broken, document));
+
+        // Then
+        assertEquals(Collections.singletonList(broken), result.getFailedFiles());
+        assertEquals("class Broken {\n", document.getText(0, document.getLength()));
+        assertNull(index.isFormatted(broken.getPath(), FormattedStateIndex.UNKNOWN_MODIFICATION_TIME,
+                "class Broken {\n", FormatterOptions.DEFAULT.fingerprint()));
+    }
+
+    @Test
+    public void testFormattedOpenDocumentsAreRecordedInIndex()
+            throws IOException, InterruptedException, BadLocationException {
+        // Given
+        FileObject root = FileUtil.createMemoryFileSystem().getRoot();
+        FileObject open = createFile(root, "Open.java", "class Open {   }\n");
+        StyledDocument document = createDocument("class Open {   }\n");
+        FormattedStateIndex index = createIndex();
+        BulkFormatter bulkFormatter = new BulkFormatter(new GoogleCodeFormatter(new FormattedContentCache(10)), file -> StandardCharsets.UTF_8, index);
+
+        // When
+        BulkFormatter.Result result = bulkFormatter.format(Collections.singleton(root), null,
+                Collections.singletonMap(open, document));
+
+        // Then
+        assertEquals(Collections.singletonList(open), result.getChangedFiles());
+        assertEquals("class Open {}\n", document.getText(0, document.getLength()));
+        assertEquals("class Open {   }\n", open.asText("UTF-8"));
+        assertEquals(Boolean.TRUE, index.isFormatted(open.getPath(), FormattedStateIndex.UNKNOWN_MODIFICATION_TIME,
+                "class Open {}\n", FormatterOptions.DEFAULT.fingerprint()));
+    }
+
+    @Test
+    public void testOpenDocumentEditedWhileFormattingIsFormattedAgain()
+            throws IOException, InterruptedException, BadLocationException {
+        // Given
+        FileObject root = FileUtil.createMemoryFileSystem().getRoot();
+        FileObject open = createFile(root, "Open.java", "class Open {   }\n");
+        StyledDocument document = new EditedWhileRead(1);
+        document.insertString(0, "class Open {   }\n", null);
+        FormattedStateIndex index = createIndex();
+        BulkFormatter bulkFormatter = new BulkFormatter(new GoogleCodeFormatter(new FormattedContentCache(10)), file -> StandardCharsets.UTF_8, index);
+
+        // When
+        BulkFormatter.Result result = bulkFormatter.format(Collections.singleton(root), null,
+                Collections.singletonMap(open, document));
+
+        // Then
+        assertEquals(Collections.singletonList(open), result.getChangedFiles());
+        assertEquals("// Edited\nclass Open {}\n", document.getText(0, document.getLength()));
+        assertEquals(Boolean.TRUE, index.isFormatted(open.getPath(), FormattedStateIndex.UNKNOWN_MODIFICATION_TIME,
+                "// Edited\nclass Open {}\n", FormatterOptions.DEFAULT.fingerprint()));
+    }
+
+    @Test
+    public void testOpenDocumentThatKeepsBeingEditedIsSkipped()
+            throws IOException, InterruptedException, BadLocationException {
+        // Given
+        FileObject root = FileUtil.createMemoryFileSystem().getRoot();
+        FileObject open = createFile(root, "Open.java", "class Open {   }\n");
+        StyledDocument document = new EditedWhileRead(Integer.MAX_VALUE);
+        document.insertString(0, "class Open {   }\n", null);
+        BulkFormatter bulkFormatter = new BulkFormatter(new GoogleCodeFormatter(new FormattedContentCache(10)), file -> StandardCharsets.UTF_8, createIndex());
+
+        // When
+        BulkFormatter.Result result = bulkFormatter.format(Collections.singleton(root), null,
+                Collections.singletonMap(open, document));
+
+        // Then
+        assertEquals(Collections.singletonList(open), result.getSkippedFiles());
+        assertEquals(Collections.emptyList(), result.getChangedFiles());
+        assertEquals("// Edited\n// Edited\n// Edited\nclass Open {   }\n", document.getText(0, document.getLength()));
+    }
+
+    /** A document the user types a line into each time it has been read, up to a number of times. */
+    private static final class EditedWhileRead extends DefaultStyledDocument {
+
+        private int edits;
+
+        EditedWhileRead(int edits) {
+            this.edits = edits;
+        }
+
+        @Override
+        public void render(Runnable r) {
+            super.render(r);
+            if (edits > 0) {
+                edits--;
+                try {
+                    insertString(0, "// Edited\n", null);
+                } catch (BadLocationException ex) {
+                    throw new IllegalStateException(ex);
+                }
+            }
+        }
+    }
+
+    static StyledDocument createDocument(String content) throws BadLocationException {
+        StyledDocument document = new DefaultStyledDocument();
+        document.insertString(0, content, null);
+        return document;
+    }
+
+    static FormattedStateIndex createIndex() throws IOException {
+        File storage = File.createTempFile("formatted-state", ".idx");
+        storage.delete();
+        storage.deleteOnExit();
+        return new FormattedStateIndex(storage);
+    }
+
+    static FileObject createFile(FileObject root, String path, String content) throws IOException {
+        FileObject file = FileUtil.createData(root, path);
+        try (OutputStream out = file.getOutputStream()) {
+            out.write(content.getBytes(StandardCharsets.UTF_8));
+        }
+        return file;
+    }
+}
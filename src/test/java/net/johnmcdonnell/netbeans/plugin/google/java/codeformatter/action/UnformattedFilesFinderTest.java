@@ -0,0 +1,77 @@
+/*
+ * Copyright 2019 John McDonnell.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.johnmcdonnell.netbeans.plugin.google.java.codeformatter.action;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.List;
+import net.johnmcdonnell.netbeans.plugin.google.java.codeformatter.format.FormattedContentCache;
+import net.johnmcdonnell.netbeans.plugin.google.java.codeformatter.format.FormattedStateIndex;
+import net.johnmcdonnell.netbeans.plugin.google.java.codeformatter.format.GoogleCodeFormatter;
+import static net.johnmcdonnell.netbeans.plugin.google.java.codeformatter.action.BulkFormatterTest.createFile;
+import static net.johnmcdonnell.netbeans.plugin.google.java.codeformatter.action.BulkFormatterTest.createIndex;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import org.junit.jupiter.api.Test;
+import org.openide.filesystems.FileObject;
+import org.openide.filesystems.FileUtil;
+
+/**
+ *
+ * @author John McDonnell
+ */
+public class UnformattedFilesFinderTest {
+
+    @Test
+    public void testFindsUnformattedFiles() throws IOException, InterruptedException {
+        // Given
+        FileObject root = FileUtil.createMemoryFileSystem().getRoot();
+        FileObject unformatted = createFile(root, "test/Unformatted.java", "package test;\nclass Unformatted {   }\n");
+        createFile(root, "test/Formatted.java", "package test;\n\nclass Formatted {}\n");
+        FileObject broken = createFile(root, "test/Broken.java", "class Broken {\n");
+        UnformattedFilesFinder finder = new UnformattedFilesFinder(new GoogleCodeFormatter(new FormattedContentCache(10)),
+                file -> StandardCharsets.UTF_8, createIndex());
+
+        // When
+        List<FileObject> result = finder.find(Collections.singleton(root), null);
+
+        // Then
+        assertEquals(2, result.size());
+        assertEquals(broken, result.get(0));
+        assertEquals(unformatted, result.get(1));
+        assertEquals("package test;\nclass Unformatted {   }\n", unformatted.asText("UTF-8"));
+    }
+
+    @Test
+    public void testUnchangedFilesAreNotFormattedAgain() throws IOException, InterruptedException {
+        // Given
+        FileObject root = FileUtil.createMemoryFileSystem().getRoot();
+        FileObject unformatted = createFile(root, "Unformatted.java", "class Unformatted {   }\n");
+        FormattedStateIndex index = createIndex();
+        FormattedContentCache contentCache = new FormattedContentCache(10);
+        UnformattedFilesFinder finder = new UnformattedFilesFinder(new GoogleCodeFormatter(contentCache),
+                file -> StandardCharsets.UTF_8, index);
+        finder.find(Collections.singleton(root), null);
+        long lookups = contentCache.getHitCount() + contentCache.getMissCount();
+
+        // When
+        List<FileObject> result = finder.find(Collections.singleton(root), null);
+
+        // Then
+        assertEquals(Collections.singletonList(unformatted), result);
+        assertEquals(lookups, contentCache.getHitCount() + contentCache.getMissCount());
+    }
+}
@@ -0,0 +1,128 @@
+/*
+ * Copyright 2019 John McDonnell.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.johnmcdonnell.netbeans.plugin.google.java.codeformatter.cli;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ *
+ * @author John McDonnell
+ */
+public class FormatterCliTest {
+
+    private static final String UNFORMATTED = "package test;\nclass Unformatted {   }\n";
+    private static final String FORMATTED = "package test;\n\nclass Formatted {}\n";
+
+    private Path root;
+    private Path unformatted;
+    private Path formatted;
+
+    @BeforeEach
+    public void setUp() throws IOException {
+        root = Files.createTempDirectory("formatter-cli");
+        unformatted = write("test/Unformatted.java", UNFORMATTED);
+        formatted = write("test/Formatted.java", FORMATTED);
+    }
+
+    @Test
+    public void testCheckListsUnformattedFiles() throws IOException {
+        // Given
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        // When
+        int status = run(out, "--check", root.toString());
+
+        // Then
+        assertEquals(FormatterCli.EXIT_UNFORMATTED, status);
+        assertEquals(unformatted + System.lineSeparator(), new String(out.toByteArray(), StandardCharsets.UTF_8));
+        assertEquals(UNFORMATTED, read(unformatted));
+    }
+
+    @Test
+    public void testFormatsFilesInPlace() throws IOException {
+        // Given
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        // When
+        int status = run(out, root.toString());
+
+        // Then
+        assertEquals(FormatterCli.EXIT_OK, status);
+        assertEquals("package test;\n\nclass Unformatted {}\n", read(unformatted));
+        assertEquals(FORMATTED, read(formatted));
+        assertEquals(FormatterCli.EXIT_OK, run(new ByteArrayOutputStream(), "--check", root.toString()));
+    }
+
+    @Test
+    public void testIndexSkipsFilesUnchangedSinceTheLastRun() throws IOException {
+        // Given
+        String index = root.resolve("formatted-state.idx").toString();
+        run(new ByteArrayOutputStream(), "--index", index, root.toString());
+        FileTime modified = Files.getLastModifiedTime(formatted);
+        write("test/Formatted.java", "class Broken {\n");
+        Files.setLastModifiedTime(formatted, modified);
+
+        // When
+        int status = run(new ByteArrayOutputStream(), "--check", "--index", index, root.toString());
+
+        // Then
+        assertEquals(FormatterCli.EXIT_OK, status);
+    }
+
+    @Test
+    public void testBrokenFilesFail() throws IOException {
+        // Given
+        write("test/Broken.java", "class Broken {\n");
+
+        // When
+        int status = run(new ByteArrayOutputStream(), "--check", root.toString());
+
+        // Then
+        assertEquals(FormatterCli.EXIT_ERROR, status);
+    }
+
+    @Test
+    public void testMissingPathsPrintUsage() {
+        // When
+        int status = run(new ByteArrayOutputStream(), "--check");
+
+        // Then
+        assertEquals(FormatterCli.EXIT_ERROR, status);
+    }
+
+    private int run(ByteArrayOutputStream out, String... args) {
+        return FormatterCli.run(args, new PrintStream(out, true), new PrintStream(new ByteArrayOutputStream()));
+    }
+
+    private Path write(String name, String text) throws IOException {
+        Path file = root.resolve(name);
+        Files.createDirectories(file.getParent());
+        return Files.write(file, text.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String read(Path file) throws IOException {
+        return new String(Files.readAllBytes(file), StandardCharsets.UTF_8);
+    }
+}
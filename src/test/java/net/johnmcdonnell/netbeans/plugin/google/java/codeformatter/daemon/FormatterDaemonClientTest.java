@@ -0,0 +1,274 @@
+/*
+ * Copyright 2019 John McDonnell.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.johnmcdonnell.netbeans.plugin.google.java.codeformatter.daemon;
+
+import com.google.common.collect.Range;
+import com.google.googlejavaformat.java.FormatterException;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.DefaultStyledDocument;
+import javax.swing.text.StyledDocument;
+import net.johnmcdonnell.netbeans.plugin.google.java.codeformatter.format.FormatCircuitBreaker;
+import net.johnmcdonnell.netbeans.plugin.google.java.codeformatter.format.FormattedContentCache;
+import net.johnmcdonnell.netbeans.plugin.google.java.codeformatter.format.FormatterOptions;
+import net.johnmcdonnell.netbeans.plugin.google.java.codeformatter.format.GoogleCodeFormatter;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ *
+ * @author John McDonnell
+ */
+public class FormatterDaemonClientTest {
+
+    private final List<FormatterDaemon> daemons = new ArrayList<>();
+    private final AtomicInteger launches = new AtomicInteger();
+    private final List<Closeable> closeables = Collections.synchronizedList(new ArrayList<>());
+
+    @AfterEach
+    public void tearDown() throws IOException {
+        for (FormatterDaemon daemon : daemons) {
+            daemon.close();
+        }
+        synchronized (closeables) {
+            for (Closeable closeable : closeables) {
+                closeable.close();
+            }
+        }
+    }
+
+    @Test
+    public void testTextIsFormattedInDaemon() throws IOException, FormatterException {
+        // Given
+        FormatterDaemonClient client = new FormatterDaemonClient(this::launchInThread);
+
+        // When
+        String whole = client.format(FormatterOptions.DEFAULT, "class A {   int a;}\n", null);
+        String range = client.format(FormatterOptions.DEFAULT, "class A {\n  int   a;\n  int   b;\n}\n",
+                Collections.singletonList(Range.closedOpen(10, 20)));
+
+        // Then
+        assertEquals("class A {\n  int a;\n}\n", whole);
+        assertEquals("class A {\n  int a;\n  int   b;\n}\n", range);
+        assertEquals(1, launches.get());
+    }
+
+    @Test
+    public void testRequestsFromManyThreadsShareOneDaemon() throws Exception {
+        // Given
+        FormatterDaemonClient client = new FormatterDaemonClient(this::launchInThread);
+        GoogleCodeFormatter formatter = new GoogleCodeFormatter(new FormattedContentCache(0), client);
+        List<Callable<String>> formats = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            String text = "class A" + i + " {   }\n";
+            formats.add(() -> formatter.formatText(text));
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+
+        // When
+        List<Future<String>> formatted;
+        try {
+            formatted = executor.invokeAll(formats);
+        } finally {
+            executor.shutdown();
+        }
+
+        // Then
+        for (int i = 0; i < 20; i++) {
+            assertEquals("class A" + i + " {}\n", formatted.get(i).get());
+        }
+        assertEquals(1, launches.get());
+    }
+
+    @Test
+    public void testFormatterErrorsArePassedOn() {
+        // Given
+        FormatterDaemonClient client = new FormatterDaemonClient(this::launchInThread);
+
+        // Then
+        assertThrows(FormatterException.class, () -> client.format(FormatterOptions.DEFAULT, "class A {\n", null));
+    }
+
+    @Test
+    public void testDaemonIsRestartedAfterItDies() throws IOException, FormatterException {
+        // Given
+        FormatterDaemonClient client = new FormatterDaemonClient(this::launchInThread);
+        client.format(FormatterOptions.DEFAULT, "class A {}\n", null);
+        client.close();
+
+        // When
+        String formatted = client.format(FormatterOptions.DEFAULT, "class B {   }\n", null);
+
+        // Then
+        assertEquals("class B {}\n", formatted);
+        assertEquals(2, launches.get());
+    }
+
+    @Test
+    public void testFormatterFallsBackToInProcessWhenDaemonIsUnavailable() throws FormatterException {
+        // Given
+        FormatterDaemonClient client = new FormatterDaemonClient(() -> {
+            launches.incrementAndGet();
+            throw new IOException("No daemon");
+        });
+        GoogleCodeFormatter formatter = new GoogleCodeFormatter(new FormattedContentCache(0), client);
+
+        // When
+        String formatted = formatter.formatText("class A {   }\n");
+
+        // Then
+        assertEquals("class A {}\n", formatted);
+        assertEquals(1, launches.get());
+    }
+
+    @Test
+    public void testMalformedFramesOnlyEndTheirConnection() throws IOException, FormatterException {
+        // Given
+        int port = startDaemon();
+
+        // When
+        boolean hugeToken = isClosedAfter(port, out -> out.writeInt(Integer.MAX_VALUE));
+        boolean negativeToken = isClosedAfter(port, out -> out.writeInt(-1));
+        boolean unknownStyle = isClosedAfter(port, out -> {
+            writeToken(out);
+            out.writeInt(1);
+            out.writeInt(99);
+        });
+        boolean negativeRangeCount = isClosedAfter(port, out -> {
+            writeToken(out);
+            out.writeInt(1);
+            out.writeInt(0);
+            out.writeBoolean(true);
+            out.writeBoolean(true);
+            out.writeInt(-2);
+        });
+        boolean invertedRange = isClosedAfter(port, out -> {
+            writeToken(out);
+            out.writeInt(1);
+            out.writeInt(0);
+            out.writeBoolean(true);
+            out.writeBoolean(true);
+            out.writeInt(1);
+            out.writeInt(5);
+            out.writeInt(2);
+        });
+        String formatted = new FormatterDaemonClient(() -> new FormatterDaemonClient.Endpoint(port, "token", null))
+                .format(FormatterOptions.DEFAULT, "class A {   }\n", null);
+
+        // Then
+        assertTrue(hugeToken);
+        assertTrue(negativeToken);
+        assertTrue(unknownStyle);
+        assertTrue(negativeRangeCount);
+        assertTrue(invertedRange);
+        assertEquals("class A {}\n", formatted);
+    }
+
+    @Test
+    public void testDaemonPastTheTimeBudgetCountsAsFailedFormat() throws IOException, BadLocationException {
+        // Given
+        ServerSocket silent = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+        closeables.add(silent);
+        Thread accepter = new Thread(() -> {
+            try {
+                while (true) {
+                    closeables.add(silent.accept());
+                }
+            } catch (IOException ex) {
+                // Closed
+            }
+        });
+        accepter.setDaemon(true);
+        accepter.start();
+        FormatterDaemonClient client = new FormatterDaemonClient(
+                () -> new FormatterDaemonClient.Endpoint(silent.getLocalPort(), "token", null));
+        closeables.add(client);
+        GoogleCodeFormatter formatter = new GoogleCodeFormatter(new FormattedContentCache(0), client).withTimeout(100);
+        StyledDocument document = new DefaultStyledDocument();
+        document.insertString(0, "class A {   }\n", null);
+        long start = System.nanoTime();
+
+        // When
+        boolean changed = false;
+        for (int i = 0; i < 3; i++) {
+            changed |= formatter.format(document);
+        }
+
+        // Then
+        assertFalse(changed);
+        assertEquals("class A {   }\n", document.getText(0, document.getLength()));
+        assertTrue(FormatCircuitBreaker.get(document).isOpen());
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 10_000);
+    }
+
+    private FormatterDaemonClient.Endpoint launchInThread() throws IOException {
+        launches.incrementAndGet();
+        return new FormatterDaemonClient.Endpoint(startDaemon(), "token", null);
+    }
+
+    /** Starts a daemon with the token {@code "token"} and returns its port. */
+    private int startDaemon() throws IOException {
+        ServerSocket serverSocket = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+        FormatterDaemon daemon = new FormatterDaemon(serverSocket, "token");
+        daemons.add(daemon);
+        Thread thread = new Thread(daemon::serve);
+        thread.setDaemon(true);
+        thread.start();
+        return serverSocket.getLocalPort();
+    }
+
+    /** Returns whether the daemon closes the connection once the frame has been sent. */
+    private static boolean isClosedAfter(int port, Frame frame) throws IOException {
+        try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), port)) {
+            socket.setSoTimeout(10_000);
+            DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+            frame.write(out);
+            out.flush();
+            return new DataInputStream(socket.getInputStream()).read() < 0;
+        }
+    }
+
+    private static void writeToken(DataOutputStream out) throws IOException {
+        byte[] token = "token".getBytes(StandardCharsets.UTF_8);
+        out.writeInt(token.length);
+        out.write(token);
+    }
+
+    private interface Frame {
+
+        void write(DataOutputStream out) throws IOException;
+    }
+}
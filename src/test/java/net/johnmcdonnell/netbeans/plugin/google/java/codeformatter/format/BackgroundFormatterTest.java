@@ -0,0 +1,111 @@
+/*
+ * Copyright 2019 John McDonnell.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.johnmcdonnell.netbeans.plugin.google.java.codeformatter.format;
+
+import com.github.difflib.patch.AbstractDelta;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.DefaultStyledDocument;
+import javax.swing.text.StyledDocument;
+import net.johnmcdonnell.netbeans.plugin.google.java.codeformatter.metrics.FormatTrace;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.Test;
+
+/**
+ *
+ * @author John McDonnell
+ */
+public class BackgroundFormatterTest {
+
+    private static final String UNFORMATTED = "package test;\n"
+            + "public class TestClass {\n"
+            + "    public void test() \n"
+            + "    {\n"
+            + "        Number num\n"
+            + "                ;\n"
+            + "    }\n"
+            + "}\n";
+
+    private static final String FORMATTED = "package test;\n"
+            + "\n"
+            + "public class TestClass {\n"
+            + "  public void test() {\n"
+            + "    Number num;\n"
+            + "  }\n"
+            + "}\n";
+
+    @Test
+    public void testScheduledJobAppliesFormattedText() throws BadLocationException {
+        // Given
+        StyledDocument document = getDocument(UNFORMATTED);
+        AtomicBoolean afterApplyCalled = new AtomicBoolean();
+
+        // When
+        BackgroundFormatter.Job job = new BackgroundFormatter(new GoogleCodeFormatter())
+                .schedule(document, false, new FormatTrace(), () -> afterApplyCalled.set(true));
+        job.waitFinished();
+
+        // Then
+        assertEquals(FORMATTED, document.getText(0, document.getLength()));
+        assertTrue(afterApplyCalled.get());
+    }
+
+    @Test
+    public void testAlreadyFormattedDocumentIsNotReapplied() throws BadLocationException {
+        // Given
+        StyledDocument document = getDocument(FORMATTED);
+        AtomicBoolean afterApplyCalled = new AtomicBoolean();
+        long version = DocumentVersion.get(document);
+
+        // When
+        new BackgroundFormatter(new GoogleCodeFormatter())
+                .schedule(document, false, new FormatTrace(), () -> afterApplyCalled.set(true))
+                .waitFinished();
+
+        // Then
+        assertEquals(version, DocumentVersion.get(document));
+        assertTrue(!afterApplyCalled.get());
+    }
+
+    @Test
+    public void testPreformattedDeltasAreKeptForTheDocumentVersion() throws BadLocationException {
+        // Given
+        StyledDocument document = getDocument(UNFORMATTED);
+        GoogleCodeFormatter formatter = new GoogleCodeFormatter();
+        PreformatCache cache = new PreformatCache(10, 1 << 20);
+        long fingerprint = formatter.getOptions().fingerprint();
+
+        // When
+        boolean computed = new BackgroundFormatter(formatter).preformat(document, cache);
+        List<AbstractDelta<String>> deltas = cache.take(document, DocumentVersion.get(document), fingerprint);
+        formatter.applyDeltas(document, deltas);
+
+        // Then
+        assertTrue(computed);
+        assertEquals(FORMATTED, document.getText(0, document.getLength()));
+        assertNull(cache.take(document, DocumentVersion.get(document), fingerprint));
+    }
+
+    private StyledDocument getDocument(String text) throws BadLocationException {
+        StyledDocument document = new DefaultStyledDocument();
+        document.insertString(0, text, null);
+        return document;
+    }
+}
@@ -0,0 +1,241 @@
+/*
+ * Copyright 2019 John McDonnell.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.johnmcdonnell.netbeans.plugin.google.java.codeformatter.format;
+
+import com.github.difflib.algorithm.DiffException;
+import com.github.difflib.patch.AbstractDelta;
+import com.google.googlejavaformat.java.FormatterException;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.DefaultStyledDocument;
+import javax.swing.text.StyledDocument;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Applies the deltas of generated Java sources, with CRLF line endings, tabs, Unicode and missing
+ * final line breaks among them, and checks that the documents end up byte for byte the same as the
+ * revised text, within a time budget for each case. The apply times are written to
+ * {@code target/document-delta-updater-corpus.csv}. A failing case can be repeated by passing its
+ * seed as the {@code corpus.seed} system property.
+ *
+ * @author John McDonnell
+ */
+public class DocumentDeltaUpdaterCorpusTest {
+
+    private static final long SEED = Long.getLong("corpus.seed", 20191101L);
+
+    private static final int FORMATTED_CASES = 40;
+
+    private static final int MUTATED_CASES = 400;
+
+    /** The time allowed to apply the deltas of a case, on top of the time allowed for each line. */
+    private static final long BUDGET_MILLIS = 250;
+
+    private static final long BUDGET_MICROS_PER_LINE = 50;
+
+    private static final String[] WORDS = {
+        "value", "count", "name", "été", "über", "λ", "日本",
+        "café", "naïve", "Жук"
+    };
+
+    private static final String[] TEXTS = {
+        "plain", "éèê", "日本語", "😀 smile", "مرحبا",
+        "tab\\tand\\nescapes", "\u00a0non-breaking"
+    };
+
+    private final List<String> results = new ArrayList<>();
+
+    @BeforeEach
+    public void warmUp() throws Exception {
+        // Applied untimed first, so that the budget is not spent on loading and compiling classes
+        Random random = new Random(SEED - 1);
+        for (int i = 0; i < 20; i++) {
+            String original = generate(random, 100);
+            StyledDocument document = new DefaultStyledDocument();
+            document.insertString(0, original, null);
+            new DocumentDeltaUpdater(LineDiff.diff(original, mutate(random, original)), document).run();
+        }
+    }
+
+    @Test
+    public void testFormatterOutputIsReproduced() throws Exception {
+        GoogleCodeFormatter formatter = new GoogleCodeFormatter(new FormattedContentCache(10)).withTimeout(0);
+        for (int i = 0; i < FORMATTED_CASES; i++) {
+            // Given
+            long seed = SEED + i;
+            Random random = new Random(seed);
+            String original = generate(random, 1 + random.nextInt(i % 10 == 9 ? 400 : 40));
+
+            // When
+            String formatted = formatter.formatText(original);
+            List<AbstractDelta<String>> deltas = formatter.computeDeltas(original);
+
+            // Then
+            assertApplied("formatted", seed, original, formatted, deltas);
+        }
+        writeResults("formatted");
+    }
+
+    @Test
+    public void testMutatedSourcesAreReproduced() throws Exception {
+        for (int i = 0; i < MUTATED_CASES; i++) {
+            // Given
+            long seed = SEED + FORMATTED_CASES + i;
+            Random random = new Random(seed);
+            String original = generate(random, 1 + random.nextInt(i % 50 == 49 ? 600 : 30));
+
+            // When
+            String revised = mutate(random, original);
+            List<AbstractDelta<String>> deltas = LineDiff.diff(original, revised);
+
+            // Then
+            assertApplied("mutated", seed, original, revised, deltas);
+        }
+        writeResults("mutated");
+    }
+
+    private void assertApplied(String kind, long seed, String original, String revised,
+            List<AbstractDelta<String>> deltas) throws BadLocationException, DiffException {
+        StyledDocument document = new DefaultStyledDocument();
+        document.insertString(0, original, null);
+        DocumentDeltaUpdater updater = new DocumentDeltaUpdater(deltas, document);
+
+        long start = System.nanoTime();
+        updater.run();
+        long micros = TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - start);
+
+        int lines = LineTable.split(original).size();
+        results.add(kind + "," + seed + "," + original.length() + "," + lines + "," + deltas.size() + "," + micros);
+        assertArrayEquals(revised.getBytes(StandardCharsets.UTF_8),
+                document.getText(0, document.getLength()).getBytes(StandardCharsets.UTF_8),
+                "seed " + seed);
+        long budgetMicros = TimeUnit.MILLISECONDS.toMicros(BUDGET_MILLIS) + lines * BUDGET_MICROS_PER_LINE;
+        assertTrue(micros <= budgetMicros,
+                "seed " + seed + " took " + micros + " us for " + lines + " lines, over " + budgetMicros + " us");
+    }
+
+    private void writeResults(String kind) throws IOException {
+        Path target = Paths.get("target");
+        if (Files.isDirectory(target)) {
+            List<String> lines = new ArrayList<>();
+            lines.add("kind,seed,chars,lines,deltas,applyMicros");
+            lines.addAll(results);
+            Files.write(target.resolve("document-delta-updater-corpus-" + kind + ".csv"), lines,
+                    StandardCharsets.UTF_8);
+        }
+    }
+
+    /** Generates an unformatted, but parseable, Java source with the given number of methods. */
+    private static String generate(Random random, int methodCount) {
+        StringBuilder source = new StringBuilder();
+        source.append("package corpus;\n");
+        source.append("import java.util.Map;\nimport java.util.List;\n");
+        source.append("import java.util.ArrayList;\nimport java.util.HashMap;\n\n");
+        source.append("/** Generated à la main\n\n   */\n");
+        source.append("public class Generated").append(random.nextInt(1000)).append("{\n");
+        source.append("    private final Map<String,List<Integer>> values=new HashMap<>();\n");
+        for (int i = 0; i < methodCount; i++) {
+            appendMember(source, random, i);
+        }
+        source.append("}");
+        String text = source.toString();
+        if (random.nextInt(4) > 0) {
+            text += "\n";
+        }
+        if (random.nextInt(3) == 0) {
+            text = text.replace("\n", "\r\n");
+        }
+        return text;
+    }
+
+    private static void appendMember(StringBuilder source, Random random, int index) {
+        String indent = random.nextInt(4) == 0 ? "\t" : random.nextBoolean() ? "    " : "  ";
+        String word = WORDS[random.nextInt(WORDS.length)];
+        String text = TEXTS[random.nextInt(TEXTS.length)];
+        switch (random.nextInt(4)) {
+            case 0:
+                source.append(indent).append("// ").append(text).append(" comment   \n");
+                source.append(indent).append("String ").append(word).append(index)
+                        .append("   =\"").append(text).append("\" ;\n");
+                break;
+            case 1:
+                source.append(indent).append("int ").append(word).append(index).append("(int a,int b)");
+                source.append(random.nextBoolean() ? "\n" + indent + "{\n" : " {\n");
+                source.append(indent).append(indent).append("return a+b*").append(random.nextInt(100))
+                        .append("\n").append(indent).append(indent).append(";\n");
+                source.append(indent).append("}\n");
+                break;
+            case 2:
+                source.append(indent).append("java.util.function.Function<String,Integer> f").append(index)
+                        .append("=s->{ return s.length()  +").append(random.nextInt(10)).append(";};\n");
+                break;
+            default:
+                source.append(indent).append("/**\n").append(indent).append(" * ").append(text).append("\n")
+                        .append(indent).append(" */\n");
+                source.append(indent).append("void ").append(word).append(index).append("() {\n");
+                source.append(indent).append(indent).append("List<Integer> list=new ArrayList<>();")
+                        .append(" list.add(").append(index).append(");\n");
+                source.append(indent).append("}\n");
+                break;
+        }
+        for (int blank = random.nextInt(3); blank > 0; blank--) {
+            source.append(random.nextBoolean() ? "\n" : "   \n");
+        }
+    }
+
+    /** Inserts, removes, changes and reindents random lines of the text, keeping its line endings. */
+    private static String mutate(Random random, String text) {
+        String separator = text.contains("\r\n") ? "\r\n" : "\n";
+        List<String> lines = new ArrayList<>(Arrays.asList(text.split(separator)));
+        for (int edits = 1 + random.nextInt(20); edits > 0 && !lines.isEmpty(); edits--) {
+            int line = random.nextInt(lines.size());
+            switch (random.nextInt(5)) {
+                case 0:
+                    lines.add(line, "// " + TEXTS[random.nextInt(TEXTS.length)]);
+                    break;
+                case 1:
+                    lines.remove(line);
+                    break;
+                case 2:
+                    lines.set(line, lines.get(line).trim());
+                    break;
+                case 3:
+                    lines.set(line, "  " + lines.get(line) + " " + WORDS[random.nextInt(WORDS.length)]);
+                    break;
+                default:
+                    int count = Math.min(lines.size() - line, 1 + random.nextInt(10));
+                    lines.subList(line, line + count).clear();
+                    lines.add(line, "");
+                    break;
+            }
+        }
+        String revised = String.join(separator, lines);
+        return text.endsWith("\n") ? revised + separator : revised;
+    }
+}
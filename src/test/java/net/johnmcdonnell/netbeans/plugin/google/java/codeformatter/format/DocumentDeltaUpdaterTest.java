@@ -15,14 +15,20 @@
  */
 package net.johnmcdonnell.netbeans.plugin.google.java.codeformatter.format;
 
+import com.github.difflib.DiffUtils;
+import com.github.difflib.algorithm.DiffException;
 import com.github.difflib.patch.ChangeDelta;
 import com.github.difflib.patch.Chunk;
 import com.github.difflib.patch.DeleteDelta;
 import com.github.difflib.patch.InsertDelta;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
 import javax.swing.text.BadLocationException;
 import javax.swing.text.DefaultStyledDocument;
+import javax.swing.text.Position;
 import javax.swing.text.StyledDocument;
 import org.junit.jupiter.api.Test;
 import static org.junit.jupiter.api.Assertions.*;
@@ -135,6 +141,114 @@ public class DocumentDeltaUpdaterTest {
         assertTrue(getMultipleIssueSolution().equals(documentToUpdate.getText(0, documentToUpdate.getLength())));
     }
     
+    @Test
+    public void testPositionsOutsideChangedCharactersAreKept() throws BadLocationException, DiffException {
+        // Given
+        StyledDocument documentToUpdate = getMultipleIssueDocument();
+        String original = documentToUpdate.getText(0, documentToUpdate.getLength());
+        Position classPosition = documentToUpdate.createPosition(original.indexOf("class TestClass"));
+        Position numPosition = documentToUpdate.createPosition(original.indexOf("num"));
+        String solution = getMultipleIssueSolution();
+
+        //When
+        DocumentDeltaUpdater instance = new DocumentDeltaUpdater(
+                DiffUtils.diff(original, solution, null).getDeltas(), documentToUpdate);
+        instance.run();
+
+        //Then
+        String updated = documentToUpdate.getText(0, documentToUpdate.getLength());
+        assertEquals(solution, updated);
+        assertEquals(updated.indexOf("class TestClass"), classPosition.getOffset());
+        assertEquals(updated.indexOf("num"), numPosition.getOffset());
+    }
+
+    @Test
+    public void testInsertAfterLastLineWithoutNewline() throws BadLocationException, DiffException {
+        // Given
+        StyledDocument documentToUpdate = getBasicTestDocument();
+        String original = documentToUpdate.getText(0, documentToUpdate.getLength());
+        String revised = original + "\n// End of TestClass";
+
+        //When
+        DocumentDeltaUpdater instance = new DocumentDeltaUpdater(
+                DiffUtils.diff(original, revised, null).getDeltas(), documentToUpdate);
+        instance.run();
+
+        //Then
+        assertEquals(revised, documentToUpdate.getText(0, documentToUpdate.getLength()));
+    }
+
+    @Test
+    public void testLargeReformatIsAppliedAsMinimalEdits() throws BadLocationException, DiffException {
+        // Given
+        StringBuilder original = new StringBuilder("class Large {\n");
+        StringBuilder revised = new StringBuilder("class Large {\n");
+        for (int i = 0; i < 1000; i++) {
+            original.append("    int  field").append(i).append("  =  ").append(i).append(" ;\n");
+            revised.append("  int field").append(i).append(" = ").append(i).append(";\n");
+        }
+        original.append("}\n");
+        revised.append("}\n");
+        StyledDocument documentToUpdate = new DefaultStyledDocument();
+        documentToUpdate.insertString(0, original.toString(), null);
+        AtomicInteger events = new AtomicInteger();
+        documentToUpdate.addDocumentListener(new DocumentListener() {
+            @Override
+            public void insertUpdate(DocumentEvent e) {
+                events.incrementAndGet();
+            }
+
+            @Override
+            public void removeUpdate(DocumentEvent e) {
+                events.incrementAndGet();
+            }
+
+            @Override
+            public void changedUpdate(DocumentEvent e) {
+                events.incrementAndGet();
+            }
+        });
+
+        //When
+        DocumentDeltaUpdater instance = new DocumentDeltaUpdater(
+                DiffUtils.diff(original.toString(), revised.toString(), null).getDeltas(), documentToUpdate);
+        instance.run();
+
+        //Then
+        assertEquals(revised.toString(), documentToUpdate.getText(0, documentToUpdate.getLength()));
+        // The runs of spaces removed from each line, rather than the lines replaced as a whole
+        assertTrue(events.get() <= 5 * 1000, "events: " + events.get());
+    }
+
+    @Test
+    public void testPositionsInUntouchedLinesSurviveLargeReformat() throws BadLocationException, DiffException {
+        // Given
+        StringBuilder original = new StringBuilder("class Large {\n");
+        StringBuilder revised = new StringBuilder("class Large {\n");
+        for (int i = 0; i < 1000; i++) {
+            String line = i == 500 ? "  int untouched = 0;\n" : "    int  field" + i + "  =  " + i + " ;\n";
+            original.append(line);
+            revised.append(i == 500 ? line : "  int field" + i + " = " + i + ";\n");
+        }
+        original.append("}\n");
+        revised.append("}\n");
+        StyledDocument documentToUpdate = new DefaultStyledDocument();
+        documentToUpdate.insertString(0, original.toString(), null);
+        Position untouched = documentToUpdate.createPosition(original.indexOf("untouched"));
+        Position lineStart = documentToUpdate.createPosition(original.indexOf("    int  field700 "));
+
+        //When
+        DocumentDeltaUpdater instance = new DocumentDeltaUpdater(
+                DiffUtils.diff(original.toString(), revised.toString(), null).getDeltas(), documentToUpdate);
+        instance.run();
+
+        //Then
+        String updated = documentToUpdate.getText(0, documentToUpdate.getLength());
+        assertEquals(revised.toString(), updated);
+        assertEquals(updated.indexOf("untouched"), untouched.getOffset());
+        assertEquals(updated.indexOf("  int field700 "), lineStart.getOffset());
+    }
+
     private StyledDocument getBasicTestDocument() throws BadLocationException {
         StyledDocument document = new DefaultStyledDocument();
         document.insertString(0, "public class TestClass {\n"
@@ -0,0 +1,97 @@
+/*
+ * Copyright 2019 John McDonnell.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.johnmcdonnell.netbeans.plugin.google.java.codeformatter.format;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.DefaultStyledDocument;
+import javax.swing.text.StyledDocument;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.Test;
+
+/**
+ *
+ * @author John McDonnell
+ */
+public class FormatCircuitBreakerTest {
+
+    @Test
+    public void testRepeatedFailuresOpenTheBreakerUntilTheCooldownPasses() {
+        // Given
+        AtomicLong now = new AtomicLong(1_000);
+        FormatCircuitBreaker breaker = new FormatCircuitBreaker(now::get);
+
+        // When
+        for (int i = 0; i < FormatCircuitBreaker.MAX_FAILURES; i++) {
+            assertTrue(breaker.allowsFormat());
+            breaker.recordFailure();
+        }
+        boolean allowedWhileOpen = breaker.allowsFormat();
+        now.addAndGet(FormatCircuitBreaker.COOLDOWN_MILLIS);
+        boolean allowedAfterCooldown = breaker.allowsFormat();
+        breaker.recordFailure();
+        boolean allowedAfterFailedRetry = breaker.allowsFormat();
+
+        // Then
+        assertFalse(allowedWhileOpen);
+        assertTrue(allowedAfterCooldown);
+        assertFalse(allowedAfterFailedRetry);
+        assertTrue(breaker.isOpen());
+    }
+
+    @Test
+    public void testSubstantialEditsLetAFormatThrough() throws BadLocationException {
+        // Given
+        StyledDocument document = new DefaultStyledDocument();
+        FormatCircuitBreaker breaker = FormatCircuitBreaker.get(document);
+        for (int i = 0; i < FormatCircuitBreaker.MAX_FAILURES; i++) {
+            breaker.recordFailure();
+        }
+
+        // When
+        document.insertString(0, "x", null);
+        boolean allowedAfterSmallEdit = breaker.allowsFormat();
+        document.insertString(0, new String(new char[FormatCircuitBreaker.SUBSTANTIAL_CHANGE_CHARS]), null);
+        boolean allowedAfterLargeEdit = breaker.allowsFormat();
+        breaker.recordSuccess();
+
+        // Then
+        assertFalse(allowedAfterSmallEdit);
+        assertTrue(allowedAfterLargeEdit);
+        assertFalse(breaker.isOpen());
+    }
+
+    @Test
+    public void testNoFormatStartsWhileARunawayFormatIsRunning() {
+        // Given
+        FormatCircuitBreaker breaker = new FormatCircuitBreaker(() -> 0);
+        AtomicBoolean running = new AtomicBoolean(true);
+
+        // When
+        breaker.recordRunaway(running::get);
+        boolean allowedWhileRunning = breaker.allowsFormat();
+        running.set(false);
+        boolean allowedOnceFinished = breaker.allowsFormat();
+
+        // Then
+        assertFalse(allowedWhileRunning);
+        assertTrue(allowedOnceFinished);
+        assertFalse(breaker.isOpen());
+    }
+}
@@ -0,0 +1,93 @@
+/*
+ * Copyright 2019 John McDonnell.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.johnmcdonnell.netbeans.plugin.google.java.codeformatter.format;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import net.johnmcdonnell.netbeans.plugin.google.java.codeformatter.format.FormatScheduler.Priority;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import org.junit.jupiter.api.Test;
+
+/**
+ *
+ * @author John McDonnell
+ */
+public class FormatSchedulerTest {
+
+    @Test
+    public void testFocusedDocumentIsFormattedFirst() throws InterruptedException {
+        // Given
+        FormatScheduler scheduler = new FormatScheduler(1, 10);
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch blocker = new CountDownLatch(1);
+        List<String> order = new CopyOnWriteArrayList<>();
+        scheduler.reserve().submit(Priority.SAVE, () -> {
+            started.countDown();
+            await(blocker);
+        });
+        started.await();
+
+        // When
+        scheduler.reserve().submit(Priority.IDLE, () -> order.add("idle"));
+        scheduler.reserve().submit(Priority.SAVE, () -> order.add("first save"));
+        scheduler.reserve().submit(Priority.SAVE, () -> order.add("second save"));
+        FormatScheduler.Task last = scheduler.reserve().submit(Priority.FOCUSED, () -> order.add("focused"));
+        blocker.countDown();
+        FormatScheduler.Task idle = scheduler.reserve().submit(Priority.IDLE, () -> { });
+        idle.waitFinished();
+        last.waitFinished();
+
+        // Then
+        assertEquals("focused", order.get(0));
+        assertEquals("first save", order.get(1));
+        assertEquals("second save", order.get(2));
+        assertEquals("idle", order.get(3));
+    }
+
+    @Test
+    public void testSubmissionsBeyondTheLimitAreRefused() throws InterruptedException {
+        // Given
+        FormatScheduler scheduler = new FormatScheduler(1, 2);
+        CountDownLatch blocker = new CountDownLatch(1);
+        FormatScheduler.Task running = scheduler.reserve().submit(Priority.SAVE, () -> await(blocker));
+        FormatScheduler.Task waiting = scheduler.reserve().submit(Priority.SAVE, () -> { });
+
+        // When
+        FormatScheduler.Slot refused = scheduler.reserve();
+        waiting.cancel();
+        FormatScheduler.Slot afterCancel = scheduler.reserve();
+        blocker.countDown();
+        running.waitFinished();
+
+        // Then
+        assertNull(refused);
+        assertNotNull(afterCancel);
+        afterCancel.release();
+        assertNotNull(scheduler.reserve());
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
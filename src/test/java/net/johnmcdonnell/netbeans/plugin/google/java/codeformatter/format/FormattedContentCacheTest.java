@@ -0,0 +1,86 @@
+/*
+ * Copyright 2019 John McDonnell.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.johnmcdonnell.netbeans.plugin.google.java.codeformatter.format;
+
+import javax.swing.text.BadLocationException;
+import javax.swing.text.DefaultStyledDocument;
+import javax.swing.text.StyledDocument;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.Test;
+
+/**
+ *
+ * @author John McDonnell
+ */
+public class FormattedContentCacheTest {
+
+    @Test
+    public void testHitsAndMissesAreCounted() {
+        // Given
+        FormattedContentCache cache = new FormattedContentCache(10);
+        cache.markFormatted("class A {}\n", 1);
+
+        // When
+        boolean formattedWithSameOptions = cache.isFormatted("class A {}\n", 1);
+        boolean formattedWithOtherOptions = cache.isFormatted("class A {}\n", 2);
+        boolean otherTextFormatted = cache.isFormatted("class B {}\n", 1);
+
+        // Then
+        assertTrue(formattedWithSameOptions);
+        assertFalse(formattedWithOtherOptions);
+        assertFalse(otherTextFormatted);
+        assertEquals(1, cache.getHitCount());
+        assertEquals(2, cache.getMissCount());
+    }
+
+    @Test
+    public void testLeastRecentlyUsedEntriesAreEvicted() {
+        // Given
+        FormattedContentCache cache = new FormattedContentCache(2);
+        cache.markFormatted("first", 1);
+        cache.markFormatted("second", 1);
+        cache.isFormatted("first", 1);
+
+        // When
+        cache.markFormatted("third", 1);
+
+        // Then
+        assertEquals(2, cache.size());
+        assertTrue(cache.isFormatted("first", 1));
+        assertFalse(cache.isFormatted("second", 1));
+        assertTrue(cache.isFormatted("third", 1));
+    }
+
+    @Test
+    public void testFormattedDocumentSkipsFormatterOnNextSave() throws BadLocationException {
+        // Given
+        FormattedContentCache cache = new FormattedContentCache(10);
+        GoogleCodeFormatter formatter = new GoogleCodeFormatter(cache);
+        StyledDocument document = new DefaultStyledDocument();
+        document.insertString(0, "package test;\nclass A {   }\n", null);
+        formatter.format(document);
+
+        // When
+        formatter.format(document);
+
+        // Then
+        assertEquals("package test;\n\nclass A {}\n", document.getText(0, document.getLength()));
+        assertEquals(1, cache.getHitCount());
+    }
+}
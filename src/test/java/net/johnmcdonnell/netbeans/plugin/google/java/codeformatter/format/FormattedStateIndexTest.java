@@ -0,0 +1,123 @@
+/*
+ * Copyright 2019 John McDonnell.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.johnmcdonnell.netbeans.plugin.google.java.codeformatter.format;
+
+import java.io.File;
+import java.io.IOException;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ *
+ * @author John McDonnell
+ */
+public class FormattedStateIndexTest {
+
+    private File storage;
+
+    @BeforeEach
+    public void setUp() throws IOException {
+        storage = File.createTempFile("formatted-state", ".idx");
+        storage.delete();
+    }
+
+    @AfterEach
+    public void tearDown() {
+        storage.delete();
+    }
+
+    @Test
+    public void testStateIsOnlyReturnedForUnchangedStamps() {
+        // Given
+        FormattedStateIndex index = new FormattedStateIndex(storage);
+        index.record("A.java", 100, "class A {}\n", 1, true);
+
+        // When
+        Boolean sameStamps = index.isFormatted("A.java", 100, 1);
+        Boolean otherTime = index.isFormatted("A.java", 200, 1);
+        Boolean otherOptions = index.isFormatted("A.java", 100, 2);
+        Boolean otherFile = index.isFormatted("B.java", 100, 1);
+
+        // Then
+        assertEquals(Boolean.TRUE, sameStamps);
+        assertNull(otherTime);
+        assertNull(otherOptions);
+        assertNull(otherFile);
+    }
+
+    @Test
+    public void testMatchingContentUpdatesModificationTime() {
+        // Given
+        FormattedStateIndex index = new FormattedStateIndex(storage);
+        index.record("A.java", FormattedStateIndex.UNKNOWN_MODIFICATION_TIME, "class A {}\n", 1, true);
+
+        // When
+        Boolean changedContent = index.isFormatted("A.java", 300, "class A { }\n", 1);
+        Boolean sameContent = index.isFormatted("A.java", 300, "class A {}\n", 1);
+
+        // Then
+        assertNull(changedContent);
+        assertEquals(Boolean.TRUE, sameContent);
+        assertEquals(Boolean.TRUE, index.isFormatted("A.java", 300, 1));
+    }
+
+    @Test
+    public void testIndexIsPersisted() {
+        // Given
+        FormattedStateIndex index = new FormattedStateIndex(storage);
+        index.record("A.java", 100, "class A {}\n", 1, true);
+        index.record("B.java", 100, "class B {   }\n", 1, false);
+
+        // When
+        index.flush();
+        FormattedStateIndex reloaded = new FormattedStateIndex(storage);
+
+        // Then
+        assertEquals(2, reloaded.size());
+        assertEquals(Boolean.TRUE, reloaded.isFormatted("A.java", 100, 1));
+        assertEquals(Boolean.FALSE, reloaded.isFormatted("B.java", 100, 1));
+    }
+
+    @Test
+    public void testIndexFlushedWhileRecordingCanBeReloaded() throws InterruptedException {
+        // Given
+        FormattedStateIndex index = new FormattedStateIndex(storage);
+        index.record("A.java", 100, "class A {}\n", 1, true);
+        Thread recorder = new Thread(() -> {
+            for (int i = 0; i < 20_000; i++) {
+                index.record("B" + i + ".java", 100, "class B {}\n", 1, true);
+            }
+        });
+
+        // When
+        recorder.start();
+        int flushes = 0;
+        while (recorder.isAlive() || flushes == 0) {
+            index.flush();
+            flushes++;
+
+            // Then
+            FormattedStateIndex reloaded = new FormattedStateIndex(storage);
+            assertEquals(Boolean.TRUE, reloaded.isFormatted("A.java", 100, 1), "after flush " + flushes);
+        }
+        recorder.join();
+        index.flush();
+        assertEquals(20_001, new FormattedStateIndex(storage).size());
+    }
+}
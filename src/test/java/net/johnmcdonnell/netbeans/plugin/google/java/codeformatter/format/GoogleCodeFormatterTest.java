@@ -16,16 +16,22 @@
 
 package net.johnmcdonnell.netbeans.plugin.google.java.codeformatter.format;
 
+import com.google.googlejavaformat.java.FormatterException;
+import com.google.googlejavaformat.java.JavaFormatterOptions.Style;
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.charset.StandardCharsets;
+import javax.swing.text.AttributeSet;
 import javax.swing.text.BadLocationException;
 import javax.swing.text.DefaultStyledDocument;
 import javax.swing.text.StyledDocument;
+import net.johnmcdonnell.netbeans.plugin.google.java.codeformatter.metrics.FormatMetrics;
+import net.johnmcdonnell.netbeans.plugin.google.java.codeformatter.metrics.FormatTrace;
 import org.apache.commons.io.IOUtils;
 import org.junit.jupiter.api.Assertions;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.function.Executable;
 import org.openide.util.Exceptions;
  
 /**
@@ -50,6 +56,170 @@ public class GoogleCodeFormatterTest {
         assertTrue(expectedClass.getText(0, expectedClass.getLength()).equals(originalClass.getText(0, originalClass.getLength()))); 
     }
 
+    @Test
+    public void testFormattingOfChangedLinesOnly() throws BadLocationException {
+        // Given
+        StyledDocument document = new DefaultStyledDocument();
+        document.insertString(0, "package test;\n"
+                + "\n"
+                + "public class TestClass {\n"
+                + "  public void first() {\n"
+                + "        int a    =   1;\n"
+                + "  }\n"
+                + "\n"
+                + "  public void second() {\n"
+                + "    int b = 2;\n"
+                + "  }\n"
+                + "}\n", null);
+        GoogleCodeFormatter formatter = new GoogleCodeFormatter();
+        DirtyRegionTracker.get(document).reset();
+
+        // When
+        String text = document.getText(0, document.getLength());
+        document.insertString(text.indexOf("2;"), "   ", null);
+        formatter.formatChangedLines(document);
+
+        // Then
+        String formatted = document.getText(0, document.getLength());
+        assertTrue(formatted.contains("        int a    =   1;\n"));
+        assertTrue(formatted.contains("    int b = 2;\n"));
+    }
+
+    @Test
+    public void testNoChangedLinesLeavesDocumentUntouched() throws BadLocationException {
+        // Given
+        StyledDocument document = getTestClassAsDocument("OriginalClass.txt");
+        String original = document.getText(0, document.getLength());
+        DirtyRegionTracker.get(document).reset();
+
+        // When
+        new GoogleCodeFormatter().formatChangedLines(document);
+
+        // Then
+        assertTrue(original.equals(document.getText(0, document.getLength())));
+    }
+
+    @Test
+    public void testFormatterOptionsAreApplied() throws FormatterException {
+        // Given
+        String source = "import java.util.Map;\nimport java.util.List;\nclass A { List<String> a;\n}\n";
+        GoogleCodeFormatter formatter = new GoogleCodeFormatter(new FormattedContentCache(10));
+
+        // When
+        String google = formatter.formatText(source);
+        String aosp = formatter.withOptions(new FormatterOptions(Style.AOSP, true, true)).formatText(source);
+        String keepImports = formatter.withOptions(new FormatterOptions(Style.GOOGLE, false, false))
+                .formatText(source);
+
+        // Then
+        Assertions.assertEquals("import java.util.List;\n\nclass A {\n  List<String> a;\n}\n", google);
+        Assertions.assertEquals("import java.util.List;\n\nclass A {\n    List<String> a;\n}\n", aosp);
+        Assertions.assertEquals("import java.util.Map;\nimport java.util.List;\n\nclass A {\n  List<String> a;\n}\n",
+                keepImports);
+    }
+
+    @Test
+    public void testEditsToImportsOnlyFixImports() throws BadLocationException {
+        // Given
+        String body = "class A {  List<String> a;   Map<String,String> b;}\n";
+        StyledDocument document = new DefaultStyledDocument();
+        document.insertString(0, "package a;\n\nimport java.util.List;\n\n" + body, null);
+        DirtyRegionTracker.get(document).reset();
+        document.insertString(12, "import java.util.Map;\nimport java.util.Set;\n", null);
+
+        // When
+        new GoogleCodeFormatter(new FormattedContentCache(10)).formatChangedLines(document);
+
+        // Then
+        Assertions.assertEquals("package a;\n\nimport java.util.List;\nimport java.util.Map;\n\n" + body,
+                document.getText(0, document.getLength()));
+    }
+
+    @Test
+    public void testEditsToImportsOnlySortThemWhenUnusedOnesAreKept() throws BadLocationException {
+        // Given
+        String body = "class A {  List<String> a;}\n";
+        StyledDocument document = new DefaultStyledDocument();
+        document.insertString(0, "package a;\n\nimport java.util.Set;\n\n" + body, null);
+        DirtyRegionTracker.get(document).reset();
+        document.insertString(12, "import java.util.List;\nimport java.util.Map;\n", null);
+
+        // When
+        new GoogleCodeFormatter(new FormattedContentCache(10))
+                .withOptions(new FormatterOptions(Style.GOOGLE, false, true))
+                .formatChangedLines(document);
+
+        // Then
+        Assertions.assertEquals("package a;\n\nimport java.util.List;\nimport java.util.Map;\nimport java.util.Set;\n\n" + body,
+                document.getText(0, document.getLength()));
+    }
+
+    @Test
+    public void testFormatPastItsTimeBudgetIsAbandoned() throws BadLocationException {
+        // Given
+        StringBuilder source = new StringBuilder("class A {\n");
+        for (int i = 0; i < 2000; i++) {
+            source.append("void m").append(i).append("() { int a    =   ").append(i).append("; }\n");
+        }
+        source.append("}\n");
+        StyledDocument document = new DefaultStyledDocument();
+        document.insertString(0, source.toString(), null);
+        GoogleCodeFormatter formatter = new GoogleCodeFormatter(new FormattedContentCache(10)).withTimeout(1);
+
+        // When
+        boolean changed = formatter.format(document);
+
+        // Then
+        Assertions.assertFalse(changed);
+        Assertions.assertEquals(source.toString(), document.getText(0, document.getLength()));
+        Assertions.assertThrows(FormatterException.class, () -> formatter.formatText(source.toString()));
+    }
+
+    @Test
+    public void testDocumentIsNotFormattedAgainWhileAFormatPastItsBudgetRuns() throws BadLocationException {
+        // Given
+        StringBuilder source = new StringBuilder("class A {\n");
+        for (int i = 0; i < 2000; i++) {
+            source.append("void m").append(i).append("() { int a    =   ").append(i).append("; }\n");
+        }
+        source.append("}\n");
+        StyledDocument document = new DefaultStyledDocument();
+        document.insertString(0, source.toString(), null);
+        GoogleCodeFormatter formatter = new GoogleCodeFormatter(new FormattedContentCache(10)).withTimeout(1);
+        long skipped = FormatMetrics.getDefault().getBrokenCircuitSkipCount();
+
+        // When
+        formatter.format(document);
+        boolean allowedWhileRunning = FormatCircuitBreaker.get(document).allowsFormat();
+        formatter.format(document);
+
+        // Then
+        Assertions.assertFalse(allowedWhileRunning);
+        Assertions.assertEquals(skipped + 1, FormatMetrics.getDefault().getBrokenCircuitSkipCount());
+        Assertions.assertEquals(source.toString(), document.getText(0, document.getLength()));
+    }
+
+    @Test
+    public void testDeltasThatCannotBeAppliedAreReported() throws Exception {
+        // Given
+        StyledDocument document = new DefaultStyledDocument() {
+            @Override
+            public void replace(int offset, int length, String text, AttributeSet attributes)
+                    throws BadLocationException {
+                throw new BadLocationException("Refused", offset);
+            }
+        };
+        document.insertString(0, "class A {   }\n", null);
+        GoogleCodeFormatter formatter = new GoogleCodeFormatter(new FormattedContentCache(10));
+
+        // When
+        Executable format = () -> formatter.formatDocument(document, new FormatTrace());
+
+        // Then
+        Assertions.assertThrows(BadLocationException.class, format);
+        Assertions.assertFalse(formatter.format(document));
+    }
+
     private StyledDocument getTestClassAsDocument(String fileName) throws BadLocationException {
         StyledDocument document = new DefaultStyledDocument();
         document.insertString(0, readFileAsString(fileName), null);
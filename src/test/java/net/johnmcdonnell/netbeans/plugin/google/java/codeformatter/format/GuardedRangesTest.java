@@ -0,0 +1,100 @@
+/*
+ * Copyright 2019 John McDonnell.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.johnmcdonnell.netbeans.plugin.google.java.codeformatter.format;
+
+import com.github.difflib.algorithm.DiffException;
+import com.github.difflib.patch.AbstractDelta;
+import com.google.common.collect.Range;
+import com.google.common.collect.RangeSet;
+import com.google.common.collect.TreeRangeSet;
+import com.google.googlejavaformat.java.FormatterException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.DefaultStyledDocument;
+import javax.swing.text.StyledDocument;
+import net.johnmcdonnell.netbeans.plugin.google.java.codeformatter.metrics.FormatTrace;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.Test;
+
+/**
+ *
+ * @author John McDonnell
+ */
+public class GuardedRangesTest {
+
+    @Test
+    public void testGuardedRangesAreExcludedFromFormatting() {
+        // Given
+        RangeSet<Integer> guarded = TreeRangeSet.create();
+        guarded.add(Range.closedOpen(10, 20));
+        guarded.add(Range.closedOpen(30, 40));
+
+        // When
+        Collection<Range<Integer>> wholeText = GuardedRanges.exclude(null, guarded, 50);
+        Collection<Range<Integer>> changedLines = GuardedRanges.exclude(
+                Collections.singletonList(Range.closedOpen(15, 35)), guarded, 50);
+
+        // Then
+        assertEquals(Arrays.asList(Range.closedOpen(0, 10), Range.closedOpen(20, 30), Range.closedOpen(40, 50)),
+                wholeText);
+        assertEquals(Collections.singletonList(Range.closedOpen(20, 30)), changedLines);
+    }
+
+    @Test
+    public void testReplacementsTouchingGuardedTextAreDetected() {
+        // Given
+        RangeSet<Integer> guarded = TreeRangeSet.create();
+        guarded.add(Range.closedOpen(10, 20));
+
+        // Then
+        assertFalse(GuardedRanges.touches(new TextReplacement(0, 10, "x"), guarded));
+        assertFalse(GuardedRanges.touches(new TextReplacement(20, 5, "x"), guarded));
+        assertFalse(GuardedRanges.touches(new TextReplacement(10, 0, "x"), guarded));
+        assertFalse(GuardedRanges.touches(new TextReplacement(20, 0, "x"), guarded));
+        assertTrue(GuardedRanges.touches(new TextReplacement(15, 0, "x"), guarded));
+        assertTrue(GuardedRanges.touches(new TextReplacement(5, 6, ""), guarded));
+        assertTrue(GuardedRanges.touches(new TextReplacement(19, 2, "x"), guarded));
+    }
+
+    @Test
+    public void testTextOutsideGuardedSectionsIsFormatted()
+            throws BadLocationException, FormatterException, DiffException {
+        // Given
+        String header = "class A {\n  int   a;\n";
+        String guardedText = "  // <editor-fold defaultstate=\"collapsed\" desc=\"Generated Code\">\n  int    b;\n  // </editor-fold>\n";
+        String footer = "  int   c;\n}\n";
+        String text = header + guardedText + footer;
+        RangeSet<Integer> guarded = TreeRangeSet.create();
+        guarded.add(Range.closedOpen(header.length(), header.length() + guardedText.length()));
+        StyledDocument document = new DefaultStyledDocument();
+        document.insertString(0, text, null);
+        GoogleCodeFormatter formatter = new GoogleCodeFormatter(new FormattedContentCache(0));
+
+        // When
+        List<AbstractDelta<String>> deltas
+                = formatter.computeDeltas(text, GuardedRanges.exclude(null, guarded, text.length()));
+        new DocumentDeltaUpdater(deltas, document, new FormatTrace(), guarded).run();
+
+        // Then
+        assertEquals("class A {\n  int a;\n" + guardedText + "  int c;\n}\n",
+                document.getText(0, document.getLength()));
+    }
+}
@@ -0,0 +1,134 @@
+/*
+ * Copyright 2019 John McDonnell.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.johnmcdonnell.netbeans.plugin.google.java.codeformatter.format;
+
+import com.github.difflib.algorithm.DiffException;
+import com.github.difflib.patch.AbstractDelta;
+import com.github.difflib.patch.DeltaType;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.Test;
+
+/**
+ *
+ * @author John McDonnell
+ */
+public class LineDiffTest {
+
+    @Test
+    public void testIdenticalTextsHaveNoDeltas() throws DiffException {
+        // Given
+        String text = "class A {\n  int a;\n}\n";
+
+        // When
+        List<AbstractDelta<String>> deltas = LineDiff.diff(text, text);
+
+        // Then
+        assertTrue(deltas.isEmpty());
+    }
+
+    @Test
+    public void testDeltasOnlyCoverChangedLines() throws DiffException {
+        // Given
+        String original = "class A {\n  int a;\nint b;\n  int c;\n  void m() {}\n}\n";
+        String revised = "class A {\n  int a;\n  int b;\n  int c;\n  void m() {}\n}\n";
+
+        // When
+        List<AbstractDelta<String>> deltas = LineDiff.diff(original, revised);
+
+        // Then
+        assertEquals(1, deltas.size());
+        assertEquals(DeltaType.CHANGE, deltas.get(0).getType());
+        assertEquals(2, deltas.get(0).getSource().getPosition());
+        assertEquals(1, deltas.get(0).getSource().size());
+        assertEquals(revised, apply(original, deltas));
+    }
+
+    @Test
+    public void testRandomEditsAreReproduced() throws DiffException {
+        Random random = new Random(42);
+        for (int round = 0; round < 200; round++) {
+            // Given
+            StringBuilder original = new StringBuilder();
+            StringBuilder revised = new StringBuilder();
+            int lines = random.nextInt(200);
+            for (int i = 0; i < lines; i++) {
+                // Few distinct lines, so most are not unique and have to be diffed
+                String line = random.nextInt(4) == 0 ? "line " + i : "  }";
+                original.append(line).append('\n');
+                int edit = random.nextInt(10);
+                if (edit == 0) {
+                    revised.append("changed ").append(i).append('\n');
+                } else if (edit == 1) {
+                    revised.append(line).append('\n').append("inserted\n");
+                } else if (edit != 2) {
+                    revised.append(line).append('\n');
+                }
+            }
+
+            // When
+            List<AbstractDelta<String>> deltas = LineDiff.diff(original.toString(), revised.toString());
+
+            // Then
+            assertEquals(revised.toString(), apply(original.toString(), deltas));
+        }
+    }
+
+    @Test
+    public void testLargeWindowWithoutAnchorsIsReplacedWhole() throws DiffException {
+        // Given
+        StringBuilder original = new StringBuilder("class A {\n");
+        StringBuilder revised = new StringBuilder("class A {\n");
+        for (int i = 0; i < LineDiff.MAX_MYERS_LINES; i++) {
+            original.append("x\n");
+            revised.append(i % 2 == 0 ? "x\n" : "y\n");
+        }
+        original.append("}\n");
+        revised.append("}\n");
+
+        // When
+        List<AbstractDelta<String>> deltas = LineDiff.diff(original.toString(), revised.toString());
+
+        // Then
+        assertEquals(1, deltas.size());
+        assertEquals(2, deltas.get(0).getSource().getPosition());
+        assertEquals(revised.toString(), apply(original.toString(), deltas));
+    }
+
+    @Test
+    public void testLinesAreSplitAtEveryLineFeed() {
+        for (String text : new String[] {"", "\n", "\n\n", "a", "a\n", "a\n\n", "\na", "a\n\nb\n", "a\r\nb"}) {
+            // When
+            LineTable lines = LineTable.split(new StringBuilder(text));
+
+            // Then
+            assertEquals(Arrays.asList(text.split("\n", -1)), lines.strings(0, lines.size()), "\"" + text + "\"");
+        }
+    }
+
+    private static String apply(String original, List<AbstractDelta<String>> deltas) {
+        StringBuilder text = new StringBuilder(original);
+        List<TextReplacement> replacements = TextReplacements.fromDeltas(original, deltas);
+        for (int i = replacements.size() - 1; i >= 0; i--) {
+            TextReplacement replacement = replacements.get(i);
+            text.replace(replacement.getOffset(), replacement.getEndOffset(), replacement.getText());
+        }
+        return text.toString();
+    }
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright 2019 John McDonnell.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.johnmcdonnell.netbeans.plugin.google.java.codeformatter.format;
+
+import com.github.difflib.patch.AbstractDelta;
+import com.github.difflib.patch.ChangeDelta;
+import com.github.difflib.patch.Chunk;
+import java.util.Collections;
+import java.util.List;
+import javax.swing.text.DefaultStyledDocument;
+import javax.swing.text.Document;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.Test;
+
+/**
+ *
+ * @author John McDonnell
+ */
+public class PreformatCacheTest {
+
+    @Test
+    public void testDeltasAreOnlyHandedOutForTheirVersionAndOptions() {
+        // Given
+        PreformatCache cache = new PreformatCache(10, 1 << 20);
+        Document document = new DefaultStyledDocument();
+        List<AbstractDelta<String>> deltas = deltas(10);
+
+        // When
+        cache.put(document, 3, 1, deltas);
+        List<AbstractDelta<String>> otherVersion = cache.take(document, 4, 1);
+        cache.put(document, 3, 1, deltas);
+        List<AbstractDelta<String>> otherOptions = cache.take(document, 3, 2);
+        cache.put(document, 3, 1, deltas);
+        List<AbstractDelta<String>> matching = cache.take(document, 3, 1);
+
+        // Then
+        assertNull(otherVersion);
+        assertNull(otherOptions);
+        assertSame(deltas, matching);
+        assertEquals(0, cache.size());
+        assertEquals(1, cache.getHitCount());
+        assertEquals(2, cache.getMissCount());
+    }
+
+    @Test
+    public void testLeastRecentlyUsedEntriesAreEvictedBeyondTheWeight() {
+        // Given
+        PreformatCache cache = new PreformatCache(10, 3000);
+        Document first = new DefaultStyledDocument();
+        Document second = new DefaultStyledDocument();
+        Document third = new DefaultStyledDocument();
+
+        // When
+        cache.put(first, 0, 1, deltas(1000));
+        cache.put(second, 0, 1, deltas(1000));
+        cache.put(third, 0, 1, deltas(1000));
+
+        // Then
+        assertEquals(2, cache.size());
+        assertTrue(cache.getWeight() <= 3000);
+        assertNull(cache.take(first, 0, 1));
+    }
+
+    @Test
+    public void testRemovedDocumentsAreForgotten() {
+        // Given
+        PreformatCache cache = new PreformatCache(10, 1 << 20);
+        Document document = new DefaultStyledDocument();
+        cache.put(document, 0, 1, Collections.emptyList());
+
+        // When
+        cache.remove(document);
+
+        // Then
+        assertEquals(0, cache.size());
+        assertEquals(0, cache.getWeight());
+    }
+
+    private static List<AbstractDelta<String>> deltas(int length) {
+        StringBuilder line = new StringBuilder();
+        for (int i = 0; i < length; i++) {
+            line.append('x');
+        }
+        return Collections.singletonList(new ChangeDelta<>(
+                new Chunk<>(0, Collections.singletonList("")),
+                new Chunk<>(0, Collections.singletonList(line.toString()))));
+    }
+}
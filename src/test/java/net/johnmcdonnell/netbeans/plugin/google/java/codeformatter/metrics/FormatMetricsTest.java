@@ -0,0 +1,58 @@
+/*
+ * Copyright 2019 John McDonnell.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.johnmcdonnell.netbeans.plugin.google.java.codeformatter.metrics;
+
+import java.util.concurrent.TimeUnit;
+import net.johnmcdonnell.netbeans.plugin.google.java.codeformatter.metrics.FormatTrace.Phase;
+import net.johnmcdonnell.netbeans.plugin.google.java.codeformatter.metrics.FormatTrace.Trigger;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.Test;
+
+/**
+ *
+ * @author John McDonnell
+ */
+public class FormatMetricsTest {
+
+    @Test
+    public void testFormatsAreKeptApartByTrigger() {
+        // Given
+        FormatMetrics metrics = new FormatMetrics();
+        metrics.setSlowSaveThresholdMillis(Long.MAX_VALUE);
+
+        // When
+        metrics.record(trace(Trigger.SAVE, 10));
+        metrics.record(trace(Trigger.IDLE, 2000));
+        metrics.record(trace(Trigger.BACKGROUND, 3000));
+        metrics.record(trace(Trigger.BULK, 4000));
+
+        // Then
+        assertEquals(1, metrics.getSaveCount());
+        assertEquals(1L, metrics.getFormatCounts().get("idle"));
+        assertEquals(1L, metrics.getFormatCounts().get("bulk"));
+        assertTrue(metrics.getPercentilesMillis().get("format.max") < 1000);
+        assertTrue(metrics.getPercentilesMillisByTrigger().get("save.format.max") < 1000);
+        assertTrue(metrics.getPercentilesMillisByTrigger().get("background.format.max") >= 3000);
+        assertTrue(metrics.getPercentilesMillisByTrigger().get("bulk.total.max") >= 4000);
+    }
+
+    private static FormatTrace trace(Trigger trigger, long formatMillis) {
+        FormatTrace trace = new FormatTrace(trigger);
+        trace.addSince(Phase.FORMAT, System.nanoTime() - TimeUnit.MILLISECONDS.toNanos(formatMillis));
+        return trace;
+    }
+}
@@ -0,0 +1,64 @@
+/*
+ * Copyright 2019 John McDonnell.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.johnmcdonnell.netbeans.plugin.google.java.codeformatter.metrics;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import org.junit.jupiter.api.Test;
+
+/**
+ *
+ * @author John McDonnell
+ */
+public class RollingHistogramTest {
+
+    @Test
+    public void testPercentilesOfSamples() {
+        // Given
+        RollingHistogram histogram = new RollingHistogram(100);
+
+        // When
+        for (int i = 100; i >= 1; i--) {
+            histogram.add(i);
+        }
+
+        // Then
+        assertEquals(100, histogram.getCount());
+        assertEquals(50, histogram.getPercentile(0.5));
+        assertEquals(99, histogram.getPercentile(0.99));
+        assertEquals(100, histogram.getPercentile(1));
+    }
+
+    @Test
+    public void testOnlyMostRecentSamplesAreKept() {
+        // Given
+        RollingHistogram histogram = new RollingHistogram(2);
+
+        // When
+        histogram.add(1000);
+        histogram.add(1);
+        histogram.add(2);
+
+        // Then
+        assertEquals(3, histogram.getCount());
+        assertEquals(2, histogram.getPercentile(1));
+    }
+
+    @Test
+    public void testEmptyHistogram() {
+        assertEquals(0, new RollingHistogram(10).getPercentile(0.5));
+    }
+}
@@ -0,0 +1,122 @@
+/*
+ * Copyright 2019 John McDonnell.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.johnmcdonnell.netbeans.plugin.google.java.codeformatter.settings;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.Test;
+import org.netbeans.api.project.Project;
+import org.netbeans.spi.project.AuxiliaryProperties;
+import org.openide.filesystems.FileObject;
+import org.openide.filesystems.FileUtil;
+import org.openide.util.Lookup;
+import org.openide.util.lookup.Lookups;
+
+/**
+ *
+ * @author John McDonnell
+ */
+public class FormatterSettingsTest {
+
+    @Test
+    public void testSettingsReadWhileStoringAreNotCached()
+            throws IOException, InterruptedException, ExecutionException {
+        // Given
+        BlockingProperties properties = new BlockingProperties();
+        Project project = new TestProject(FileUtil.createMemoryFileSystem().getRoot(), properties);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+
+        // When
+        FormatterSettings stale;
+        try {
+            Future<FormatterSettings> reading = executor.submit(() -> FormatterSettings.forProject(project));
+            assertTrue(properties.reading.await(10, TimeUnit.SECONDS));
+            FormatterSettings.store(project, FormatterSettings.ENABLED, true);
+            properties.resume.countDown();
+            stale = reading.get();
+        } finally {
+            executor.shutdown();
+        }
+
+        // Then
+        assertFalse(stale.isEnabled());
+        assertTrue(FormatterSettings.forProject(project).isEnabled());
+    }
+
+    /** Properties whose first read of {@link FormatterSettings#ENABLED} waits until it is resumed. */
+    private static final class BlockingProperties implements AuxiliaryProperties {
+
+        private final Map<String, String> values = new ConcurrentHashMap<>();
+        private final CountDownLatch reading = new CountDownLatch(1);
+        private final CountDownLatch resume = new CountDownLatch(1);
+
+        @Override
+        public String get(String key, boolean shared) {
+            String value = values.get(key);
+            if (FormatterSettings.ENABLED.equals(key) && reading.getCount() > 0) {
+                reading.countDown();
+                try {
+                    resume.await(10, TimeUnit.SECONDS);
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            return value;
+        }
+
+        @Override
+        public void put(String key, String value, boolean shared) {
+            values.put(key, value);
+        }
+
+        @Override
+        public Iterable<String> listKeys(boolean shared) {
+            return Collections.unmodifiableSet(values.keySet());
+        }
+    }
+
+    private static final class TestProject implements Project {
+
+        private final FileObject directory;
+        private final Lookup lookup;
+
+        TestProject(FileObject directory, AuxiliaryProperties properties) {
+            this.directory = directory;
+            this.lookup = Lookups.fixed(properties);
+        }
+
+        @Override
+        public FileObject getProjectDirectory() {
+            return directory;
+        }
+
+        @Override
+        public Lookup getLookup() {
+            return lookup;
+        }
+    }
+}
@@ -0,0 +1,73 @@
+/*
+ * Copyright 2019 John McDonnell.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.johnmcdonnell.netbeans.plugin.google.java.codeformatter.settings;
+
+import java.io.IOException;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.Test;
+import org.openide.filesystems.FileObject;
+import org.openide.filesystems.FileUtil;
+
+/**
+ *
+ * @author John McDonnell
+ */
+public class SourceFilterTest {
+
+    @Test
+    public void testDefaultExcludesSkipGeneratedSources() throws IOException {
+        // Given
+        FileObject root = FileUtil.createMemoryFileSystem().getRoot();
+        FileObject source = FileUtil.createData(root, "src/main/java/test/A.java");
+        FileObject generated = FileUtil.createData(root, "target/generated-sources/annotations/test/B.java");
+
+        // When
+        SourceFilter filter = new SourceFilter(root, "", SourceFilter.DEFAULT_EXCLUDES);
+
+        // Then
+        assertFalse(filter.isExcluded(source));
+        assertTrue(filter.isExcluded(generated));
+    }
+
+    @Test
+    public void testOnlyIncludedFilesAreFormatted() throws IOException {
+        // Given
+        FileObject root = FileUtil.createMemoryFileSystem().getRoot();
+        FileObject main = FileUtil.createData(root, "src/main/java/test/A.java");
+        FileObject test = FileUtil.createData(root, "src/test/java/test/ATest.java");
+
+        // When
+        SourceFilter filter = new SourceFilter(root, "src/main/**", "");
+
+        // Then
+        assertFalse(filter.isExcluded(main));
+        assertTrue(filter.isExcluded(test));
+    }
+
+    @Test
+    public void testGeneratedAnnotationInHeaderMarksFileAsGenerated() {
+        // Then
+        assertTrue(SourceFilter.isGenerated("package test;\n\n@Generated(\"protoc\")\nclass A {}\n"));
+        assertTrue(SourceFilter.isGenerated("package test;\n\n@javax.annotation.processing.Generated(\"x\")\nclass A {}\n"));
+        assertFalse(SourceFilter.isGenerated("package test;\n\nclass GeneratedCode {}\n"));
+        StringBuilder late = new StringBuilder("package test;\n\nclass A {\n");
+        while (late.length() < SourceFilter.HEADER_LENGTH) {
+            late.append("  int a;\n");
+        }
+        assertFalse(SourceFilter.isGenerated(late.append("  @Generated int b;\n}\n")));
+    }
+}
@@ -0,0 +1,81 @@
+/*
+ * Copyright 2019 John McDonnell.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.johnmcdonnell.netbeans.plugin.google.java.codeformatter.task;
+
+import com.github.difflib.patch.AbstractDelta;
+import java.util.List;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.DefaultStyledDocument;
+import javax.swing.text.StyledDocument;
+import net.johnmcdonnell.netbeans.plugin.google.java.codeformatter.format.DocumentVersion;
+import net.johnmcdonnell.netbeans.plugin.google.java.codeformatter.format.FormattedContentCache;
+import net.johnmcdonnell.netbeans.plugin.google.java.codeformatter.format.GoogleCodeFormatter;
+import net.johnmcdonnell.netbeans.plugin.google.java.codeformatter.format.PreformatCache;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import org.junit.jupiter.api.Test;
+
+/**
+ *
+ * @author John McDonnell
+ */
+public class PreformatterTest {
+
+    @Test
+    public void testDeltasAreUsedBySaveAfterAnEdit() throws BadLocationException {
+        // Given
+        StyledDocument document = new DefaultStyledDocument();
+        document.insertString(0, "class A {   }\n", null);
+        GoogleCodeFormatter formatter = new GoogleCodeFormatter(new FormattedContentCache(10));
+        long fingerprint = formatter.getOptions().fingerprint();
+        PreformatCache cache = new PreformatCache(10, 1 << 20);
+        Preformatter preformatter = new Preformatter(document, doc -> formatter, cache, 10);
+        preformatter.start();
+        preformatter.waitFinished();
+
+        // When
+        document.insertString(document.getLength() - 2, "int a;", null);
+        List<AbstractDelta<String>> whileEditing = cache.take(document, DocumentVersion.get(document), fingerprint);
+        preformatter.waitFinished();
+        List<AbstractDelta<String>> onSave = cache.take(document, DocumentVersion.get(document), fingerprint);
+        formatter.applyDeltas(document, onSave);
+        preformatter.stop();
+
+        // Then
+        assertNull(whileEditing);
+        assertNotNull(onSave);
+        assertEquals("class A {\n  int a;\n}\n", document.getText(0, document.getLength()));
+    }
+
+    @Test
+    public void testDocumentsThatSavesDoNotPreformatAreLeftAlone() throws BadLocationException {
+        // Given
+        StyledDocument document = new DefaultStyledDocument();
+        document.insertString(0, "class A {   }\n", null);
+        PreformatCache cache = new PreformatCache(10, 1 << 20);
+        Preformatter preformatter = new Preformatter(document, doc -> null, cache, 10);
+
+        // When
+        preformatter.start();
+        preformatter.waitFinished();
+        preformatter.stop();
+
+        // Then
+        assertEquals(0, cache.size());
+    }
+}